@@ -30,26 +30,27 @@ BEGIN
     #Drop temp_inventory table (no longer needed).
     DROP TABLE IF EXISTS temp_inventory;
     
-    #Add column to temp_unprocessed_sales table for hashed email.
-    ALTER TABLE temp_unprocessed_sales ADD COLUMN hashed_email VARBINARY(32);
-    
-    #Load hash table with emails from unprocessed orders and generate hashed emails.
-    INSERT INTO hash_ref (hashed_email, unhashed_email) 
-    SELECT DISTINCT MD5(cust_email), cust_email FROM temp_unprocessed_sales;
-    
-    #Fill with hashed emails from hash table.
-    UPDATE temp_unprocessed_sales, hash_ref
-    SET temp_unprocessed_sales.hashed_email = hash_ref.hashed_email
-    WHERE temp_unprocessed_sales.cust_email = hash_ref.unhashed_email;
-    
-    #Delete (unhashed) email column from unprocessed orders.
-    ALTER TABLE temp_unprocessed_sales DROP COLUMN cust_email;
-    
-    #Load temp_unprocessed_sales into unprocessed_sales table
-    INSERT INTO unprocessed_sales 
-    SELECT tus.date, tus.cust_location, dp.product_tid, tus.product_quantity, tus.hashed_email
+    #Emails arrive already hashed (see QueryMaker.loadOrders) and hash_ref is upserted from Java.
+
+    #Add customers not seen before to the customer dimension.
+    INSERT INTO dim_customer (hashed_email)
+    SELECT DISTINCT tus.hashed_email FROM temp_unprocessed_sales tus
+    LEFT JOIN dim_customer dc ON tus.hashed_email = dc.hashed_email
+    WHERE dc.customer_tid IS NULL;
+
+    #Add locations not seen before to the location dimension.
+    INSERT INTO dim_location (cust_location)
+    SELECT DISTINCT tus.cust_location FROM temp_unprocessed_sales tus
+    LEFT JOIN dim_location dl ON tus.cust_location = dl.cust_location
+    WHERE dl.location_tid IS NULL;
+
+    #Load temp_unprocessed_sales into unprocessed_sales table (customers and locations as int keys)
+    INSERT INTO unprocessed_sales (date, location_tid, product_tid, quantity, customer_tid)
+    SELECT tus.date, dl.location_tid, dp.product_tid, tus.product_quantity, dc.customer_tid
     FROM temp_unprocessed_sales tus 
-    INNER JOIN dim_product dp ON tus.product_id = dp.product_id;
+    INNER JOIN dim_product dp ON tus.product_id = dp.product_id
+    INNER JOIN dim_location dl ON tus.cust_location = dl.cust_location
+    INNER JOIN dim_customer dc ON tus.hashed_email = dc.hashed_email;
     
     #Drop temp_unprocessed_sales table.
     DROP TABLE IF EXISTS temp_unprocessed_sales;
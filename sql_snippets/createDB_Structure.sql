@@ -12,9 +12,13 @@ BEGIN
     DROP TABLE IF EXISTS temp_unprocessed_sales;
     DROP TABLE IF EXISTS unprocessed_sales;
     DROP TABLE IF EXISTS hash_ref;
+    DROP TABLE IF EXISTS dim_customer;
+    DROP TABLE IF EXISTS dim_location;
     DROP TABLE IF EXISTS processed_sales;
     DROP TABLE IF EXISTS supplier_orders;
 	DROP TABLE IF EXISTS daily_assets;
+    DROP TABLE IF EXISTS batch_checkpoints;
+    DROP TABLE IF EXISTS batch_runs;
     
     #Create temp_inventory table to house initial .csv contents
     CREATE TABLE temp_inventory (
@@ -30,7 +34,8 @@ BEGIN
         ,quantity INT
         ,wholesale_cost DECIMAL(12,2)
         ,sale_price DECIMAL(12,2)
-        ,supplier_tid INT);
+        ,supplier_tid INT
+        ,INDEX inv_product_index (product_tid));
 	    
 	#Create supplier dimension table
 	CREATE TABLE dim_supplier (
@@ -44,50 +49,106 @@ BEGIN
         ,supplier_tid INT
         ,supplier_id VARCHAR(8)
         ,product_id VARCHAR(12)
-        ,CONSTRAINT dp_pk PRIMARY KEY (product_tid));
+        ,CONSTRAINT dp_pk PRIMARY KEY (product_tid)
+        ,INDEX dp_product_id_index (product_id));
 	   
 	#Create temporary location to house customer_orders .csv contents
 	CREATE TABLE temp_unprocessed_sales (
 		date DATE
-        ,cust_email VARCHAR(320)
+        ,hashed_email BINARY(16)
         ,cust_location VARCHAR(5)
         ,product_id VARCHAR(12)
         ,product_quantity INT);
 	    
 	#Create long-term location to be used for housing orders that have yet to be processed
 	CREATE TABLE unprocessed_sales (
-		date DATE
-        ,cust_location VARCHAR(5)
+		us_id BIGINT AUTO_INCREMENT
+        ,date DATE
+        ,location_tid INT
         ,product_tid INT
         ,quantity INT
-        ,hashed_email VARBINARY(32));
+        ,customer_tid INT
+        ,CONSTRAINT us_pk PRIMARY KEY (us_id)
+        ,INDEX us_customer_index (customer_tid));
 	   
-	#Create table to store hashed customer emails and the unhashed variants
+	#Create table to store hashed customer emails and the unhashed variants (one row per customer, keyed by the MD5 digest)
 	CREATE TABLE hash_ref (
-		hashed_email VARBINARY(32)
+		hashed_email BINARY(16) NOT NULL
         ,unhashed_email VARCHAR(320)
-        ,INDEX hr_index (hashed_email));
+        ,CONSTRAINT hr_pk PRIMARY KEY (hashed_email));
+
+	#Create customer dimension table (int surrogate key per hashed email, used by the fact tables)
+	CREATE TABLE dim_customer (
+		customer_tid INT AUTO_INCREMENT
+        ,hashed_email BINARY(16)
+        ,CONSTRAINT dc_pk PRIMARY KEY (customer_tid)
+        ,CONSTRAINT dc_hashed_email_unique UNIQUE (hashed_email));
+
+	#Create location dimension table (int surrogate key per customer location, used by the fact tables)
+	CREATE TABLE dim_location (
+		location_tid INT AUTO_INCREMENT
+        ,cust_location VARCHAR(5)
+        ,CONSTRAINT dl_pk PRIMARY KEY (location_tid)
+        ,CONSTRAINT dl_location_unique UNIQUE (cust_location));
 	    
 	#Create table to store orders as they are processed
 	CREATE TABLE processed_sales (
 		date DATE
         ,processed_dt DATETIME
-        ,cust_location VARCHAR(5)
+        ,location_tid INT
         ,product_tid INT
         ,quantity INT
         ,result TINYINT
-        ,hashed_email VARBINARY(32));
+        ,customer_tid INT
+        ,INDEX ps_date_result_product_index (date, result, product_tid));
 	    
 	#Create table to store supplier orders as resupply events occur
 	CREATE TABLE supplier_orders (
 		date DATE
         ,supplier_tid INT
         ,product_tid INT
-        ,quantity INT);
+        ,quantity INT
+        ,INDEX so_date_product_index (date, product_tid));
         
 	#Create table to store daily assets for later analytics purposes
 	CREATE TABLE daily_assets (
 		date DATE
         ,assets DECIMAL (64, 2));
+
+	#Create control tables for restartable batch processing runs (see BatchRun.java)
+	CREATE TABLE batch_runs (
+		run_id INT AUTO_INCREMENT
+        ,platform TINYINT
+        ,resupply_quantity INT
+        ,processed_dt DATETIME
+        ,started DATETIME
+        ,finished DATETIME
+        ,status VARCHAR(10)
+        ,CONSTRAINT br_pk PRIMARY KEY (run_id)
+        ,INDEX br_status_index (status));
+
+	CREATE TABLE batch_checkpoints (
+		run_id INT
+        ,chunk INT
+        ,rows_done BIGINT
+        ,committed_at DATETIME
+        ,first_date DATE
+        ,last_date DATE
+        ,CONSTRAINT bc_pk PRIMARY KEY (run_id, chunk));
+
+	#Create outbox for customer notifications (see NotificationOutbox.java)
+	#Not dropped above so notifications that are still pending survive a rebuild
+	CREATE TABLE IF NOT EXISTS notification_outbox (
+		outbox_id BIGINT AUTO_INCREMENT
+        ,recipient VARCHAR(320)
+        ,body TEXT
+        ,status VARCHAR(10)
+        ,attempts INT
+        ,created DATETIME
+        ,next_attempt DATETIME
+        ,sent_at DATETIME
+        ,last_error VARCHAR(255)
+        ,CONSTRAINT no_pk PRIMARY KEY (outbox_id)
+        ,INDEX no_status_next_index (status, next_attempt));
 	    	
 END
\ No newline at end of file
@@ -18,8 +18,8 @@ BEGIN
 	FROM inventory;
 
 
-	#3. Add indexes to increase query operation.
-	ALTER TABLE processed_sales ADD INDEX ps_p_index (product_tid), ADD INDEX ps_d_index (date);
+	#3. processed_sales and supplier_orders keep permanent (date, ...) indexes (see SchemaManager.java),
+	#so they are no longer added and dropped on every call.
 
 	#3.5 Aggregate processed_sales data
 	DROP TABLE IF EXISTS temp_ps;
@@ -31,11 +31,6 @@ BEGIN
     AND result = 1
 	GROUP BY product_tid;
 
-	#3. Add indexes to increase query operation.
-	DROP INDEX ps_p_index ON processed_sales;
-	DROP INDEX ps_d_index ON processed_sales;
-	ALTER TABLE supplier_orders ADD INDEX so_p_index (product_tid), ADD INDEX so_d_index (date);
-
 	#3.6 Aggregate supplier orders data
 	DROP TABLE IF EXISTS temp_so;
 	CREATE TABLE temp_so (product_tid INT, quantity INT);
@@ -45,8 +40,6 @@ BEGIN
 	WHERE date >= @theDate
 	GROUP BY product_tid;
 
-	DROP INDEX so_p_index ON supplier_orders;
-	DROP INDEX so_d_index ON supplier_orders;
 	ALTER TABLE sales ADD INDEX sales_p_index (product_tid), ADD INDEX sales_d_index (date);
 	ALTER TABLE temp_ps ADD INDEX tps_p_index (product_tid);
 	ALTER TABLE temp_so ADD INDEX tso_p_index (product_tid);
@@ -0,0 +1,69 @@
+CREATE DEFINER=`wojack5555`@`%` PROCEDURE `incrementalDailyAssets`(IN startDate DATE, IN endDate DATE)
+BEGIN
+	#The recursion limit is raised for the day series below; keep the caller's value to put back, even on error.
+	DECLARE previousRecursionDepth INT DEFAULT @@SESSION.cte_max_recursion_depth;
+	DECLARE EXIT HANDLER FOR SQLEXCEPTION
+	BEGIN
+		SET SESSION cte_max_recursion_depth = previousRecursionDepth;
+		DROP TEMPORARY TABLE IF EXISTS asset_deltas;
+		RESIGNAL;
+	END;
+
+	#Purpose: Fills daily_assets for a whole date range in one pass (replaces one generateDailyAssets call per day)
+	#Author: agent
+    #Date Modified: October 17, 2026
+
+	#Assets at the start of a day = current inventory worth + worth sold since that day - worth restocked since that day.
+	#Only sales and restocks on or after startDate are needed, so rerunning for a later startDate
+	#(after a new batch is processed) leaves earlier days untouched.
+	SET @startDate = startDate;
+	SET @endDate = endDate;
+	SET SESSION cte_max_recursion_depth = GREATEST(1000, DATEDIFF(endDate, startDate) + 1);
+
+	#1. Aggregate the change in inventory worth per day, one scan of each fact table.
+	DROP TEMPORARY TABLE IF EXISTS asset_deltas;
+	CREATE TEMPORARY TABLE asset_deltas (
+		date DATE
+        ,delta DECIMAL(64, 2)
+        ,PRIMARY KEY (date));
+
+	INSERT INTO asset_deltas
+	SELECT x.date, SUM(x.worth)
+	FROM (
+		SELECT ps.date, SUM(ps.quantity * i.wholesale_cost) worth
+		FROM processed_sales ps
+		INNER JOIN inventory i ON ps.product_tid = i.product_tid
+		WHERE ps.date >= @startDate
+		AND ps.result = 1
+		GROUP BY ps.date
+		UNION ALL
+		SELECT so.date, -SUM(so.quantity * i.wholesale_cost)
+		FROM supplier_orders so
+		INNER JOIN inventory i ON so.product_tid = i.product_tid
+		WHERE so.date >= @startDate
+		GROUP BY so.date) x
+	GROUP BY x.date;
+
+	#2. Current inventory worth and the total change from startDate onwards.
+	SELECT COALESCE(SUM(quantity * wholesale_cost), 0) INTO @baseAssets FROM inventory;
+	SELECT COALESCE(SUM(delta), 0) INTO @tailDelta FROM asset_deltas;
+
+	#3. Replace the range with running sums: worth since day d = tail - (sum of the days before d).
+	DELETE FROM daily_assets WHERE date BETWEEN @startDate AND @endDate;
+
+	INSERT INTO daily_assets (date, assets)
+	WITH RECURSIVE days (date) AS (
+		SELECT startDate
+		UNION ALL
+		SELECT date + INTERVAL 1 DAY FROM days WHERE date < endDate)
+	SELECT d.date,
+		@baseAssets + @tailDelta
+		- (SUM(COALESCE(ad.delta, 0)) OVER (ORDER BY d.date) - COALESCE(ad.delta, 0))
+	FROM days d
+	LEFT JOIN asset_deltas ad ON ad.date = d.date;
+
+	DROP TEMPORARY TABLE asset_deltas;
+
+	#Pooled connections are reused, so leave the session as it was found.
+	SET SESSION cte_max_recursion_depth = previousRecursionDepth;
+END
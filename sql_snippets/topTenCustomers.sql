@@ -7,14 +7,18 @@ BEGIN
 	#Assign input date into local variable
 	SET @theDate = theDate;
 
-	#Select a table of results for a specific date, unhashed emails, and total spend by customer
-	SELECT DISTINCT ps.date, hr.unhashed_email, SUM(ps.quantity * inv.sale_price)
-    FROM processed_sales ps
-    INNER JOIN hash_ref hr ON ps.hashed_email = hr.hashed_email
-    INNER JOIN inventory inv ON ps.product_tid = inv.product_tid
-    WHERE date = @theDate
-    AND ps.result = 1
-    GROUP BY ps.date, hr.unhashed_email
-    ORDER BY SUM(ps.quantity * inv.sale_price) DESC
-    LIMIT 10;
+	#Rank customers by total spend on their int keys first, then look up only the ten emails shown
+	SELECT top.date, hr.unhashed_email, top.total
+    FROM (
+		SELECT ps.date, ps.customer_tid, SUM(ps.quantity * inv.sale_price) AS total
+		FROM processed_sales ps
+		INNER JOIN inventory inv ON ps.product_tid = inv.product_tid
+		WHERE ps.date = @theDate
+		AND ps.result = 1
+		GROUP BY ps.date, ps.customer_tid
+		ORDER BY total DESC
+		LIMIT 10) top
+    INNER JOIN dim_customer dc ON top.customer_tid = dc.customer_tid
+    INNER JOIN hash_ref hr ON dc.hashed_email = hr.hashed_email
+    ORDER BY top.total DESC;
 END
\ No newline at end of file
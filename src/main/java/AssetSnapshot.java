@@ -0,0 +1,201 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class AssetSnapshot {
+    private static final int FACTS_PER_TASK = 1 << 16;
+    private static final int DAYS_PER_TASK = 64;
+    private final IntIntMap productIndex;
+    private final double[] wholesaleCost;
+    private final double baseAssets;
+    private final Facts sold;
+    private final Facts restocked;
+
+    private AssetSnapshot(IntIntMap productIndex, double[] wholesaleCost, double baseAssets, Facts sold, Facts restocked) {
+        this.productIndex = productIndex;
+        this.wholesaleCost = wholesaleCost;
+        this.baseAssets = baseAssets;
+        this.sold = sold;
+        this.restocked = restocked;
+    }
+
+    /**
+     * pulls inventory, filled orders (processed_sales with result = 1) and supplier_orders once into primitive
+     * column arrays. The connection may point at a read replica, nothing is written.
+     *
+     * @param connection - open connection
+     * @return snapshot of the database at the time of the call
+     * @throws SQLException
+     */
+
+    public static AssetSnapshot load(Connection connection) throws SQLException {
+        IntIntMap productIndex = new IntIntMap(32 * 1024, -1);
+        double[] wholesaleCost = new double[1024];
+        double baseAssets = 0;
+        try (Statement st = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // stream the fact tables instead of buffering them, the column arrays are the only copy kept
+            st.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = st.executeQuery("SELECT product_tid, quantity, wholesale_cost FROM inventory")) {
+                while (rs.next()) {
+                    int index = productIndex.size();
+                    if (index == wholesaleCost.length)
+                        wholesaleCost = Arrays.copyOf(wholesaleCost, index << 1);
+                    productIndex.put(rs.getInt(1), index);
+                    wholesaleCost[index] = rs.getDouble(3);
+                    baseAssets += rs.getInt(2) * wholesaleCost[index];
+                }
+            }
+            Facts sold = Facts.load(st, "SELECT date, product_tid, quantity FROM processed_sales WHERE result = 1", productIndex);
+            Facts restocked = Facts.load(st, "SELECT date, product_tid, quantity FROM supplier_orders", productIndex);
+            return new AssetSnapshot(productIndex, wholesaleCost, baseAssets, sold, restocked);
+        }
+    }
+
+    /**
+     * computes the assets at the start of every day between start and end (inclusive):
+     * current inventory worth + worth sold since that day - worth restocked since that day.
+     * The daily changes are gathered in parallel over the fact rows and the running sums are
+     * taken in parallel over blocks of days.
+     *
+     * @param start - first date
+     * @param end   - last date
+     * @return assets per day, index 0 being start
+     */
+
+    public double[] dailyAssets(LocalDate start, LocalDate end) {
+        int firstDay = (int) start.toEpochDay();
+        int days = (int) (end.toEpochDay() - firstDay) + 1;
+        if (days <= 0)
+            return new double[0];
+
+        // delta[k] = change on day k, delta[days] = change after end (counts for every day in range)
+        double[] delta = add(sold.deltas(firstDay, days, wholesaleCost, 1), restocked.deltas(firstDay, days, wholesaleCost, -1));
+
+        // Suffix sums in two parallel passes: sum each block of days, then offset each block by the blocks after it.
+        int blocks = (days + DAYS_PER_TASK - 1) / DAYS_PER_TASK;
+        double[] blockSums = new double[blocks + 1];
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            double sum = 0;
+            for (int k = b * DAYS_PER_TASK; k < Math.min(days, (b + 1) * DAYS_PER_TASK); k++) {
+                sum += delta[k];
+            }
+            blockSums[b] = sum;
+        });
+        blockSums[blocks] = baseAssets + delta[days];
+        for (int b = blocks - 1; b >= 0; b--) {
+            blockSums[b] += blockSums[b + 1];
+        }
+
+        double[] assets = new double[days];
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            double running = blockSums[b + 1];
+            for (int k = Math.min(days, (b + 1) * DAYS_PER_TASK) - 1; k >= b * DAYS_PER_TASK; k--) {
+                running += delta[k];
+                assets[k] = running;
+            }
+        });
+        return assets;
+    }
+
+    /**
+     * returns the assets of a date range in the same layout as the specificDailyAssets procedure
+     * (minute, hour, day, month, year, assets) so it can be used by getAnalyticsData().
+     *
+     * @param start - first date
+     * @param end   - last date
+     * @return list of rows for charting
+     */
+
+    public ArrayList<Object[]> analyticsRows(LocalDate start, LocalDate end) {
+        double[] assets = dailyAssets(start, end);
+        ArrayList<Object[]> al = new ArrayList<>(assets.length);
+        LocalDate date = start;
+        for (double value : assets) {
+            al.add(new Object[]{30, 12, date.getDayOfMonth(), date.getMonthValue(), date.getYear(), Math.round(value * 100) / 100.0});
+            date = date.plusDays(1);
+        }
+        return al;
+    }
+
+    /**
+     * writes the assets of a date range as (date, assets) rows, for example into daily_assets.
+     *
+     * @param start    - first date
+     * @param end      - last date
+     * @param inserter - bulk insert on (date, assets)
+     * @throws SQLException
+     */
+
+    public void writeDailyAssets(LocalDate start, LocalDate end, BulkInserter inserter) throws SQLException {
+        double[] assets = dailyAssets(start, end);
+        Object[] row = new Object[2];
+        for (int k = 0; k < assets.length; k++) {
+            row[0] = java.sql.Date.valueOf(start.plusDays(k));
+            row[1] = Math.round(assets[k] * 100) / 100.0;
+            inserter.addRow(row);
+        }
+    }
+
+    /**
+     * @return number of products in the snapshot
+     */
+
+    public int getProductCount() {
+        return productIndex.size();
+    }
+
+    private static double[] add(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] += b[i];
+        }
+        return a;
+    }
+
+    private static class Facts {
+        private int size;
+        private int[] dates = new int[1024];
+        private int[] products = new int[1024];
+        private int[] quantities = new int[1024];
+
+        static Facts load(Statement st, String query, IntIntMap productIndex) throws SQLException {
+            Facts facts = new Facts();
+            try (ResultSet rs = st.executeQuery(query)) {
+                while (rs.next()) {
+                    int index = productIndex.get(rs.getInt(2));
+                    if (index < 0)
+                        continue;
+                    if (facts.size == facts.dates.length) {
+                        int capacity = facts.size << 1;
+                        facts.dates = Arrays.copyOf(facts.dates, capacity);
+                        facts.products = Arrays.copyOf(facts.products, capacity);
+                        facts.quantities = Arrays.copyOf(facts.quantities, capacity);
+                    }
+                    facts.dates[facts.size] = (int) rs.getDate(1).toLocalDate().toEpochDay();
+                    facts.products[facts.size] = index;
+                    facts.quantities[facts.size] = rs.getInt(3);
+                    facts.size++;
+                }
+            }
+            return facts;
+        }
+
+        double[] deltas(int firstDay, int days, double[] wholesaleCost, int sign) {
+            int tasks = Math.max(1, (size + FACTS_PER_TASK - 1) / FACTS_PER_TASK);
+            return IntStream.range(0, tasks).parallel().mapToObj(t -> {
+                double[] delta = new double[days + 1];
+                for (int i = t * FACTS_PER_TASK; i < Math.min(size, (t + 1) * FACTS_PER_TASK); i++) {
+                    int k = dates[i] - firstDay;
+                    if (k < 0)
+                        continue;
+                    delta[Math.min(k, days)] += sign * quantities[i] * wholesaleCost[products[i]];
+                }
+                return delta;
+            }).reduce(AssetSnapshot::add).orElse(new double[days + 1]);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssetSnapshotTest {
+    private static final LocalDate DAY = LocalDate.parse("2020-01-01");
+
+    private final List<Object[]> inventory = new ArrayList<>();
+    private final List<Object[]> sales = new ArrayList<>();
+    private final List<Object[]> restocks = new ArrayList<>();
+
+    // answers the three snapshot queries from the lists above
+    private Connection newConnection() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("createStatement"))
+                        return null;
+                    return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{Statement.class},
+                            (st, m, a) -> {
+                                if (!m.getName().equals("executeQuery"))
+                                    return null;
+                                String sql = (String) a[0];
+                                return resultSet(sql.contains("inventory") ? inventory : sql.contains("processed_sales") ? sales : restocks);
+                            });
+                });
+    }
+
+    private static ResultSet resultSet(List<Object[]> rows) {
+        int[] row = {-1};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (rs, m, a) -> {
+                    switch (m.getName()) {
+                        case "next":
+                            return ++row[0] < rows.size();
+                        case "getInt":
+                            return ((Number) rows.get(row[0])[(Integer) a[0] - 1]).intValue();
+                        case "getDouble":
+                            return ((Number) rows.get(row[0])[(Integer) a[0] - 1]).doubleValue();
+                        case "getDate":
+                            return java.sql.Date.valueOf((LocalDate) rows.get(row[0])[(Integer) a[0] - 1]);
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    // assets at the start of the day, summed fact by fact
+    private double naiveAssets(LocalDate day) {
+        double assets = 0;
+        for (Object[] product : inventory) {
+            assets += (Integer) product[1] * (Double) product[2];
+        }
+        assets += worthSince(sales, day);
+        assets -= worthSince(restocks, day);
+        return assets;
+    }
+
+    private double worthSince(List<Object[]> facts, LocalDate day) {
+        double worth = 0;
+        for (Object[] fact : facts) {
+            if (((LocalDate) fact[0]).isBefore(day))
+                continue;
+            for (Object[] product : inventory) {
+                if (product[0].equals(fact[1]))
+                    worth += (Integer) fact[2] * (Double) product[2];
+            }
+        }
+        return worth;
+    }
+
+    private void assertMatchesNaive(AssetSnapshot snapshot, LocalDate start, LocalDate end) {
+        double[] assets = snapshot.dailyAssets(start, end);
+        assertEquals(end.toEpochDay() - start.toEpochDay() + 1, assets.length);
+        for (int k = 0; k < assets.length; k++) {
+            assertEquals(naiveAssets(start.plusDays(k)), assets[k], 1e-6, "day " + start.plusDays(k));
+        }
+    }
+
+    /**
+     * load a few products with sales and restocks on some days only, including facts outside the range
+     * and a sale of a product missing from inventory
+     * check every day matches the naive sum, days without facts included
+     */
+    @Test
+    void matchesNaiveOnSparseDays() throws SQLException {
+        inventory.add(new Object[]{10, 5, 2.5});
+        inventory.add(new Object[]{20, 0, 4.0});
+        inventory.add(new Object[]{30, 7, 1.25});
+        sales.add(new Object[]{DAY.minusDays(3), 10, 4});
+        sales.add(new Object[]{DAY, 10, 2});
+        sales.add(new Object[]{DAY, 30, 1});
+        sales.add(new Object[]{DAY.plusDays(4), 20, 3});
+        sales.add(new Object[]{DAY.plusDays(4), 99, 50});
+        sales.add(new Object[]{DAY.plusDays(12), 10, 1});
+        restocks.add(new Object[]{DAY.plusDays(2), 20, 10});
+        restocks.add(new Object[]{DAY.plusDays(9), 30, 6});
+        restocks.add(new Object[]{DAY.plusDays(30), 10, 8});
+
+        AssetSnapshot snapshot = AssetSnapshot.load(newConnection());
+        assertEquals(3, snapshot.getProductCount());
+        assertMatchesNaive(snapshot, DAY, DAY.plusDays(14));
+        assertMatchesNaive(snapshot, DAY.plusDays(5), DAY.plusDays(8));
+        assertEquals(0, snapshot.dailyAssets(DAY, DAY.minusDays(1)).length);
+    }
+
+    /**
+     * load enough facts for several parallel tasks and ask for a range spanning several blocks of days
+     * check every day still matches the naive sum
+     */
+    @Test
+    void matchesNaiveAcrossThreads() throws SQLException {
+        Random random = new Random(6);
+        for (int p = 1; p <= 50; p++) {
+            inventory.add(new Object[]{p, random.nextInt(100), random.nextInt(1000) / 100.0});
+        }
+        for (int i = 0; i < 150000; i++) {
+            // leave every seventh day without facts
+            LocalDate day = DAY.plusDays(random.nextInt(400));
+            if (day.toEpochDay() % 7 == 0)
+                continue;
+            (i % 3 == 0 ? restocks : sales).add(new Object[]{day, 1 + random.nextInt(50), 1 + random.nextInt(5)});
+        }
+
+        AssetSnapshot snapshot = AssetSnapshot.load(newConnection());
+        LocalDate start = DAY.plusDays(17);
+        LocalDate end = DAY.plusDays(17 + 64 * 3 + 5);
+        double[] assets = snapshot.dailyAssets(start, end);
+        for (int k = 0; k < assets.length; k += 13) {
+            assertEquals(naiveAssets(start.plusDays(k)), assets[k], 1e-3, "day " + start.plusDays(k));
+        }
+        assertEquals(naiveAssets(end), assets[assets.length - 1], 1e-3);
+    }
+}
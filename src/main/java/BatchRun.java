@@ -0,0 +1,211 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+public class BatchRun {
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETE = "COMPLETE";
+    private final Connection connection;
+    private final int runId;
+    private final int resupplyQuantity;
+    private final Timestamp processedDt;
+    private final boolean resumed;
+    private long rowsDone;
+    private int chunks;
+    private LocalDate firstDate;
+    private LocalDate lastDate;
+
+    private BatchRun(Connection connection, int runId, int resupplyQuantity, Timestamp processedDt, boolean resumed, long rowsDone, int chunks,
+                     LocalDate firstDate, LocalDate lastDate) {
+        this.connection = connection;
+        this.runId = runId;
+        this.resupplyQuantity = resupplyQuantity;
+        this.processedDt = processedDt;
+        this.resumed = resumed;
+        this.rowsDone = rowsDone;
+        this.chunks = chunks;
+        this.firstDate = firstDate;
+        this.lastDate = lastDate;
+    }
+
+    /**
+     * creates the batch_runs and batch_checkpoints control tables if they do not exist yet, and adds the
+     * first_date and last_date columns to a batch_checkpoints table created without them.
+     *
+     * @param connection - open connection
+     * @throws SQLException
+     */
+
+    public static void createTables(Connection connection) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS batch_runs (" +
+                    "run_id INT AUTO_INCREMENT, platform TINYINT, resupply_quantity INT, processed_dt DATETIME, " +
+                    "started DATETIME, finished DATETIME, status VARCHAR(10), " +
+                    "CONSTRAINT br_pk PRIMARY KEY (run_id), INDEX br_status_index (status))");
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS batch_checkpoints (" +
+                    "run_id INT, chunk INT, rows_done BIGINT, committed_at DATETIME, first_date DATE, last_date DATE, " +
+                    "CONSTRAINT bc_pk PRIMARY KEY (run_id, chunk))");
+            try (ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'batch_checkpoints' AND COLUMN_NAME = 'first_date'")) {
+                if (rs.next() && rs.getInt(1) > 0)
+                    return;
+            }
+            st.executeUpdate("ALTER TABLE batch_checkpoints ADD COLUMN first_date DATE, ADD COLUMN last_date DATE");
+        }
+    }
+
+    /**
+     * picks up the unfinished run if there is one, otherwise records a new run.
+     * Every platform reads the same unprocessed_sales table, so an unfinished run is resumed whichever
+     * platform started it; a new run is never started next to it.
+     * A resumed run keeps its original resupply quantity and processed_dt so its output is
+     * the same as if it had never stopped. The dates its committed chunks covered are read from their
+     * checkpoints, unless a checkpoint was written before the dates were recorded.
+     *
+     * @param connection       - open connection
+     * @param resupplyQuantity - resupply quantity for a new run
+     * @param platform         - 1 for csv batches, 2 for email orders, recorded for a new run
+     * @return the run to process
+     * @throws SQLException
+     */
+
+    public static BatchRun resumeOrStart(Connection connection, int resupplyQuantity, int platform) throws SQLException {
+        createTables(connection);
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT br.run_id, br.resupply_quantity, br.processed_dt, " +
+                        "COALESCE(MAX(bc.rows_done), 0), COALESCE(MAX(bc.chunk), 0), " +
+                        "IF(COUNT(bc.chunk) = COUNT(bc.first_date), MIN(bc.first_date), NULL), " +
+                        "IF(COUNT(bc.chunk) = COUNT(bc.last_date), MAX(bc.last_date), NULL) " +
+                        "FROM batch_runs br LEFT JOIN batch_checkpoints bc ON br.run_id = bc.run_id " +
+                        "WHERE br.status = ? " +
+                        "GROUP BY br.run_id, br.resupply_quantity, br.processed_dt ORDER BY br.run_id DESC LIMIT 1")) {
+            ps.setString(1, RUNNING);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    java.sql.Date first = rs.getDate(6);
+                    java.sql.Date last = rs.getDate(7);
+                    return new BatchRun(connection, rs.getInt(1), rs.getInt(2), rs.getTimestamp(3), true, rs.getLong(4), rs.getInt(5),
+                            first != null ? first.toLocalDate() : null, last != null ? last.toLocalDate() : null);
+                }
+            }
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now().withNano(0));
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO batch_runs (platform, resupply_quantity, processed_dt, started, status) VALUES (?, ?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            ps.setInt(1, platform);
+            ps.setInt(2, resupplyQuantity);
+            ps.setTimestamp(3, now);
+            ps.setTimestamp(4, now);
+            ps.setString(5, RUNNING);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                keys.next();
+                return new BatchRun(connection, keys.getInt(1), resupplyQuantity, now, false, 0, 0, null, null);
+            }
+        }
+    }
+
+    /**
+     * records that rowsDone rows have been written and removed from unprocessed_sales.
+     * Must be called inside the transaction that wrote the chunk, right before commit.
+     *
+     * @param rowsDone  - rows of the run written so far
+     * @param firstDate - earliest sale date of the chunk
+     * @param lastDate  - latest sale date of the chunk
+     * @throws SQLException
+     */
+
+    public void checkpoint(long rowsDone, LocalDate firstDate, LocalDate lastDate) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO batch_checkpoints (run_id, chunk, rows_done, committed_at, first_date, last_date) VALUES (?, ?, ?, NOW(), ?, ?)")) {
+            ps.setInt(1, runId);
+            ps.setInt(2, chunks + 1);
+            ps.setLong(3, rowsDone);
+            ps.setDate(4, java.sql.Date.valueOf(firstDate));
+            ps.setDate(5, java.sql.Date.valueOf(lastDate));
+            ps.executeUpdate();
+        }
+        chunks++;
+        this.rowsDone = rowsDone;
+    }
+
+    /**
+     * marks the run as complete. Call once every row of the run has been committed.
+     *
+     * @throws SQLException
+     */
+
+    public void finish() throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "UPDATE batch_runs SET status = ?, finished = NOW() WHERE run_id = ?")) {
+            ps.setString(1, COMPLETE);
+            ps.setInt(2, runId);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * @return id of the run
+     */
+
+    public int getRunId() {
+        return runId;
+    }
+
+    /**
+     * @return resupply quantity of the run
+     */
+
+    public int getResupplyQuantity() {
+        return resupplyQuantity;
+    }
+
+    /**
+     * @return processed_dt written on every processed_sales row of the run
+     */
+
+    public Timestamp getProcessedDt() {
+        return processedDt;
+    }
+
+    /**
+     * @return true if the run was left unfinished by an earlier call and is being resumed
+     */
+
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * @return rows of the run already committed
+     */
+
+    public long getRowsDone() {
+        return rowsDone;
+    }
+
+    /**
+     * @return earliest sale date of the committed chunks, null if none was committed or a resumed run
+     * has checkpoints without dates
+     */
+
+    public LocalDate getFirstDate() {
+        return firstDate;
+    }
+
+    /**
+     * @return latest sale date of the committed chunks, null if none was committed or a resumed run
+     * has checkpoints without dates
+     */
+
+    public LocalDate getLastDate() {
+        return lastDate;
+    }
+}
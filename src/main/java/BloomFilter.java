@@ -0,0 +1,137 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BloomFilter {
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLong definiteMisses = new AtomicLong();
+    private final AtomicLong possibleHits = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+    private int insertions;
+
+    /**
+     * Bloom filter over strings, sized for the expected number of insertions and false-positive rate.
+     * mightContain() is never wrong about a miss; a hit only means the value is probably there.
+     *
+     * @param expectedInsertions - number of values that will be added
+     * @param falsePositiveRate  - wanted chance that mightContain() is true for a value never added (0..1)
+     */
+
+    public BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1: " + falsePositiveRate);
+        int n = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = new long[(int) Math.max(1, (m + 63) >>> 6)];
+        this.bitCount = (long) bits.length << 6;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    /**
+     * adds a value. Not thread safe; fill the filter before sharing it.
+     *
+     * @param value - value to add
+     */
+
+    public void put(String value) {
+        long hash1 = hash(value, 0x9E3779B97F4A7C15L);
+        long hash2 = hash(value, 0xC2B2AE3D27D4EB4FL) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        insertions++;
+    }
+
+    /**
+     * checks a value against the filter and counts the result.
+     *
+     * @param value - value to look up
+     * @return false if the value was definitely never added, true if it probably was
+     */
+
+    public boolean mightContain(String value) {
+        if (value == null) {
+            definiteMisses.incrementAndGet();
+            return false;
+        }
+        long hash1 = hash(value, 0x9E3779B97F4A7C15L);
+        long hash2 = hash(value, 0xC2B2AE3D27D4EB4FL) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                definiteMisses.incrementAndGet();
+                return false;
+            }
+        }
+        possibleHits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * records that a value the filter let through turned out not to exist.
+     */
+
+    public void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    /**
+     * @return number of lookups answered as definite misses
+     */
+
+    public long getDefiniteMisses() {
+        return definiteMisses.get();
+    }
+
+    /**
+     * @return number of lookups that were let through as possible hits
+     */
+
+    public long getPossibleHits() {
+        return possibleHits.get();
+    }
+
+    /**
+     * @return number of possible hits reported back as not existing
+     */
+
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    /**
+     * @return false-positive rate expected from the size of the filter and the values added
+     */
+
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * insertions / bitCount), hashCount);
+    }
+
+    /**
+     * @return size of the filter in bits
+     */
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * @return number of hash functions
+     */
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    private static long hash(String value, long seed) {
+        long h = seed ^ value.length();
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,30 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    /**
+     * add product ids
+     * check every added id is found and the miss rate of unknown ids is near the configured rate
+     */
+    @Test
+    void noFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("P" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("P" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("X" + i))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+        assertEquals(10000 + falsePositives, filter.getPossibleHits());
+        assertEquals(10000 - falsePositives, filter.getDefiniteMisses());
+        assertEquals(0.01, filter.getExpectedFalsePositiveRate(), 0.005);
+    }
+}
@@ -0,0 +1,213 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+public class BulkInserter implements AutoCloseable {
+    public static final int MIN_BATCH_SIZE = 100;
+    public static final int MAX_BATCH_SIZE = 20000;
+    private static final int MAX_PLACEHOLDERS = 65535;
+    private final PreparedStatement preparedStatement;
+    private final int[] types;
+    private final int batchSize;
+    private int pending;
+    private long rowCount;
+
+    /**
+     * Creates a parameterized INSERT for the given table and columns. Rows are bound with their real types
+     * and sent with addBatch/executeBatch, so the server parses the statement once for the whole load.
+     * Connector/J folds the batch into multi-row inserts when rewriteBatchedStatements is on.
+     *
+     * @param connection       - open connection to insert with
+     * @param tableName        - name of table
+     * @param columnNames      - names of the columns being filled
+     * @param types            - integer array of types (STRING, DATE, INT etc..) defined in QueryMaker.java
+     * @param maxAllowedPacket - server max_allowed_packet in bytes, used to size the batches
+     * @throws SQLException
+     */
+
+    public BulkInserter(Connection connection, String tableName, String[] columnNames, int[] types, long maxAllowedPacket) throws SQLException {
+        this(connection, "INSERT INTO", tableName, columnNames, types, maxAllowedPacket);
+    }
+
+    /**
+     * Same as the default constructor, but lets the caller pick the insert verb (for example INSERT IGNORE INTO).
+     *
+     * @param connection       - open connection to insert with
+     * @param insertVerb       - leading keywords of the statement
+     * @param tableName        - name of table
+     * @param columnNames      - names of the columns being filled
+     * @param types            - integer array of types (STRING, DATE, INT etc..) defined in QueryMaker.java
+     * @param maxAllowedPacket - server max_allowed_packet in bytes, used to size the batches
+     * @throws SQLException
+     */
+
+    public BulkInserter(Connection connection, String insertVerb, String tableName, String[] columnNames, int[] types, long maxAllowedPacket) throws SQLException {
+        StringBuilder sql = new StringBuilder(insertVerb).append(' ').append(tableName).append(" ( ");
+        StringBuilder values = new StringBuilder(" ) VALUES ( ");
+        for (int i = 0; i < columnNames.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                values.append(", ");
+            }
+            sql.append(columnNames[i]);
+            values.append('?');
+        }
+        this.preparedStatement = connection.prepareStatement(sql.append(values).append(" )").toString());
+        this.types = types;
+        this.batchSize = batchSizeFor(types, maxAllowedPacket);
+    }
+
+    /**
+     * works out how many rows fit in one batch. A rewritten batch is sent as a single packet, so the batch
+     * is kept to half of max_allowed_packet based on an estimate of the row width, and under the server
+     * limit of 65535 placeholders per prepared statement. The packet estimate is clamped to
+     * [MIN_BATCH_SIZE, MAX_BATCH_SIZE]; the placeholder limit applies after the clamp.
+     *
+     * @param types            - integer array of column types
+     * @param maxAllowedPacket - server max_allowed_packet in bytes
+     * @return rows per batch
+     */
+
+    public static int batchSizeFor(int[] types, long maxAllowedPacket) {
+        int rowWidth = 4;
+        for (int type : types) {
+            rowWidth += type == QueryMaker.INT ? 12
+                    : type == QueryMaker.DOUBLE ? 26
+                    : type == QueryMaker.DATE ? 14
+                    : type == QueryMaker.DATETIME ? 23
+                    : type == QueryMaker.BINARY ? 20
+                    : 68;
+        }
+        long size = Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, (maxAllowedPacket / 2) / rowWidth));
+        // the placeholder limit is enforced by the server, so it wins over MIN_BATCH_SIZE for very wide rows
+        return (int) Math.max(1, Math.min(size, MAX_PLACEHOLDERS / Math.max(1, types.length)));
+    }
+
+    /**
+     * @return rows per batch for this insert
+     */
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return number of rows written to the database so far
+     */
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * binds one row and queues it, sending the batch once it is full.
+     *
+     * @param row - values in column order
+     * @throws SQLException
+     */
+
+    public void addRow(Object[] row) throws SQLException {
+        for (int i = 0; i < types.length; i++) {
+            bind(i + 1, types[i], row[i]);
+        }
+        queue();
+    }
+
+    /**
+     * @return the insert statement, for binding a row column by column with its typed setters
+     */
+
+    public PreparedStatement getStatement() {
+        return preparedStatement;
+    }
+
+    /**
+     * queues the row bound directly on getStatement(), sending the batch once it is full.
+     *
+     * @throws SQLException
+     */
+
+    public void addBoundRow() throws SQLException {
+        queue();
+    }
+
+    /**
+     * binds and queues the first count rows of a 2D array.
+     *
+     * @param rows  - 2D array of values
+     * @param count - number of rows to take from the array
+     * @throws SQLException
+     */
+
+    public void addRows(Object[][] rows, int count) throws SQLException {
+        for (int j = 0; j < count; j++) {
+            addRow(rows[j]);
+        }
+    }
+
+    /**
+     * sends whatever is queued.
+     *
+     * @throws SQLException
+     */
+
+    public void flush() throws SQLException {
+        if (pending == 0)
+            return;
+        preparedStatement.executeBatch();
+        rowCount += pending;
+        pending = 0;
+    }
+
+    /**
+     * flushes the remaining rows and closes the statement.
+     *
+     * @throws SQLException
+     */
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            preparedStatement.close();
+        }
+    }
+
+    private void queue() throws SQLException {
+        preparedStatement.addBatch();
+        if (++pending >= batchSize)
+            flush();
+    }
+
+    private void bind(int index, int type, Object value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(index, type == QueryMaker.INT ? Types.INTEGER
+                    : type == QueryMaker.DOUBLE ? Types.DECIMAL
+                    : type == QueryMaker.DATE ? Types.DATE
+                    : type == QueryMaker.DATETIME ? Types.TIMESTAMP
+                    : type == QueryMaker.BINARY ? Types.BINARY
+                    : Types.VARCHAR);
+        } else if (type == QueryMaker.INT) {
+            preparedStatement.setInt(index, value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString()));
+        } else if (type == QueryMaker.DOUBLE) {
+            preparedStatement.setDouble(index, value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString()));
+        } else if (type == QueryMaker.DATE) {
+            preparedStatement.setDate(index, value instanceof java.sql.Date ? (java.sql.Date) value
+                    : value instanceof LocalDate ? java.sql.Date.valueOf((LocalDate) value)
+                    : java.sql.Date.valueOf(value.toString()));
+        } else if (type == QueryMaker.DATETIME) {
+            preparedStatement.setTimestamp(index, value instanceof Timestamp ? (Timestamp) value
+                    : value instanceof LocalDateTime ? Timestamp.valueOf((LocalDateTime) value)
+                    : Timestamp.valueOf(value.toString()));
+        } else if (type == QueryMaker.BINARY) {
+            preparedStatement.setBytes(index, (byte[]) value);
+        } else {
+            preparedStatement.setString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkInserterTest {
+
+    private static int[] columns(int type, int count) {
+        int[] types = new int[count];
+        Arrays.fill(types, type);
+        return types;
+    }
+
+    /**
+     * size a narrow row (3 INT columns, 40 bytes estimated) for packets of different sizes
+     * check half of the packet is used, clamped to MIN_BATCH_SIZE and MAX_BATCH_SIZE
+     */
+    @Test
+    void sizesByPacket() {
+        int[] types = columns(QueryMaker.INT, 3);
+        assertEquals(524288 / 40, BulkInserter.batchSizeFor(types, 1024 * 1024));
+        assertEquals(BulkInserter.MIN_BATCH_SIZE, BulkInserter.batchSizeFor(types, 4096));
+        assertEquals(BulkInserter.MIN_BATCH_SIZE, BulkInserter.batchSizeFor(types, 8000));
+        assertEquals(BulkInserter.MAX_BATCH_SIZE, BulkInserter.batchSizeFor(types, 64L * 1024 * 1024));
+        assertEquals(BulkInserter.MAX_BATCH_SIZE, BulkInserter.batchSizeFor(types, 1L << 40));
+    }
+
+    /**
+     * size wide rows with a large packet
+     * check the batch stays under 65535 placeholders, also when that is below MIN_BATCH_SIZE
+     */
+    @Test
+    void staysUnderPlaceholderLimit() {
+        assertEquals(65535 / 10, BulkInserter.batchSizeFor(columns(QueryMaker.INT, 10), 1L << 30));
+        assertEquals(65535 / 40, BulkInserter.batchSizeFor(columns(QueryMaker.STRING, 40), 1L << 30));
+        assertEquals(65535 / 1000, BulkInserter.batchSizeFor(columns(QueryMaker.INT, 1000), 1L << 30));
+        assertEquals(65535 / 1000, BulkInserter.batchSizeFor(columns(QueryMaker.INT, 1000), 4096));
+        for (int width = 1; width <= 2000; width += 7) {
+            int size = BulkInserter.batchSizeFor(columns(QueryMaker.STRING, width), 1L << 30);
+            assertTrue((long) size * width <= 65535, width + " columns");
+            assertTrue(size >= 1);
+        }
+    }
+
+    /**
+     * size rows mixing every column type with a small packet
+     * check the per-type width estimates add up
+     */
+    @Test
+    void estimatesRowWidth() {
+        // 4 + 12 + 26 + 14 + 23 + 20 + 68 = 167 bytes per row
+        int[] types = {QueryMaker.INT, QueryMaker.DOUBLE, QueryMaker.DATE, QueryMaker.DATETIME, QueryMaker.BINARY, QueryMaker.STRING};
+        assertEquals(1048576 / 167, BulkInserter.batchSizeFor(types, 2 * 1048576));
+    }
+}
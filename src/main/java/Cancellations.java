@@ -0,0 +1,146 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Cancellations {
+    private final Set<String> senders = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<String>> cancelledProducts = new LinkedHashMap<>();
+
+    /**
+     * Customers who sent a cancellation email, and the products cancelled for each of them.
+     * Senders are kept in a hash set, so matching an order against the cancellations is a single
+     * lookup no matter how many cancellations the inbox held. add() may be called from several
+     * threads; the other methods run once the inbox is drained.
+     */
+
+    public Cancellations() {
+    }
+
+    /**
+     * records a cancellation email.
+     *
+     * @param sender - email address of the customer
+     */
+
+    public void add(String sender) {
+        senders.add(sender);
+    }
+
+    /**
+     * @param sender - email address of a customer
+     * @return boolean value if the customer sent a cancellation email
+     */
+
+    public boolean contains(String sender) {
+        return senders.contains(sender);
+    }
+
+    /**
+     * @return number of customers who sent a cancellation email
+     */
+
+    public int size() {
+        return senders.size();
+    }
+
+    /**
+     * @return boolean value if no cancellation email was received
+     */
+
+    public boolean isEmpty() {
+        return senders.isEmpty();
+    }
+
+    /**
+     * removes the orders of cancelling customers, recording their products for the summaries.
+     *
+     * @param orders - orders read from the inbox
+     * @return orders to keep, in their original order
+     */
+
+    public List<Transaction> apply(List<Transaction> orders) {
+        List<Transaction> kept = new ArrayList<>(orders.size());
+        for (Transaction t : orders) {
+            if (senders.contains(t.getCustEmail())) {
+                System.out.println("Order removed due to cancellation email");
+                cancelled(t.getCustEmail(), t.getProduct_ID());
+            } else {
+                kept.add(t);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * deletes the orders cancelling customers placed in earlier runs that are still waiting in
+     * temp_unprocessed_sales or unprocessed_sales. unprocessed_sales is searched through its
+     * customer_tid index, after one dim_customer lookup per customer. Call inside the transaction that stores the new orders.
+     *
+     * @param connection - connection of the running transaction
+     * @return number of stored order lines deleted
+     * @throws SQLException
+     */
+
+    public int cancelStored(Connection connection) throws SQLException {
+        if (senders.isEmpty())
+            return 0;
+        int deleted = 0;
+        try (PreparedStatement findNew = connection.prepareStatement(
+                "SELECT product_id FROM temp_unprocessed_sales WHERE hashed_email = ?");
+             PreparedStatement deleteNew = connection.prepareStatement(
+                     "DELETE FROM temp_unprocessed_sales WHERE hashed_email = ?");
+             PreparedStatement findPending = connection.prepareStatement(
+                     "SELECT dp.product_id FROM unprocessed_sales us " +
+                             "INNER JOIN dim_product dp ON us.product_tid = dp.product_tid " +
+                             "WHERE us.customer_tid = (SELECT customer_tid FROM dim_customer WHERE hashed_email = ?)");
+             PreparedStatement deletePending = connection.prepareStatement(
+                     "DELETE FROM unprocessed_sales " +
+                             "WHERE customer_tid = (SELECT customer_tid FROM dim_customer WHERE hashed_email = ?)")) {
+            for (String sender : senders) {
+                byte[] hashed = EmailHasher.md5(sender);
+                deleted += cancel(sender, hashed, findNew, deleteNew);
+                deleted += cancel(sender, hashed, findPending, deletePending);
+            }
+        }
+        if (deleted > 0)
+            System.out.println(deleted + " stored orders removed due to cancellation emails");
+        return deleted;
+    }
+
+    private int cancel(String sender, byte[] hashed, PreparedStatement find, PreparedStatement delete) throws SQLException {
+        find.setBytes(1, hashed);
+        try (ResultSet rs = find.executeQuery()) {
+            if (!rs.next())
+                return 0;
+            do {
+                cancelled(sender, rs.getString(1));
+            } while (rs.next());
+        }
+        delete.setBytes(1, hashed);
+        return delete.executeUpdate();
+    }
+
+    private void cancelled(String sender, String productId) {
+        cancelledProducts.computeIfAbsent(sender, s -> new ArrayList<>()).add(productId);
+    }
+
+    /**
+     * @return one email per customer listing every product that was cancelled for them
+     */
+
+    public List<MailPipeline.Notification> summaries() {
+        List<MailPipeline.Notification> summaries = new ArrayList<>(cancelledProducts.size());
+        for (Map.Entry<String, List<String>> customer : cancelledProducts.entrySet()) {
+            summaries.add(new MailPipeline.Notification(customer.getKey(), "Your order has been canceled\n"
+                    + "The canceled products:\n" + customer.getValue()));
+        }
+        return summaries;
+    }
+}
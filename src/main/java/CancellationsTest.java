@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CancellationsTest {
+
+    private static Transaction order(String email, String productId) {
+        return new Transaction(Date.valueOf("2020-03-01"), "12345", productId, 1, email);
+    }
+
+    /**
+     * cancel one of two customers with several orders each
+     * check only the other customer's orders are kept, in their original order
+     */
+    @Test
+    void removesCancelledOrders() {
+        Cancellations cancellations = new Cancellations();
+        cancellations.add("b@x.com");
+        cancellations.add("b@x.com");
+        List<Transaction> kept = cancellations.apply(Arrays.asList(
+                order("a@x.com", "P1"), order("b@x.com", "P2"), order("a@x.com", "P3"), order("b@x.com", "P4")));
+
+        assertEquals(1, cancellations.size());
+        assertEquals(2, kept.size());
+        assertEquals("P1", kept.get(0).getProduct_ID());
+        assertEquals("P3", kept.get(1).getProduct_ID());
+    }
+
+    /**
+     * cancel two customers, one of them without orders
+     * check a single summary listing every cancelled product is made for the customer who had orders
+     */
+    @Test
+    void summarisesPerCustomer() {
+        Cancellations cancellations = new Cancellations();
+        cancellations.add("b@x.com");
+        cancellations.add("c@x.com");
+        cancellations.apply(Arrays.asList(order("b@x.com", "P2"), order("a@x.com", "P1"), order("b@x.com", "P4")));
+
+        List<MailPipeline.Notification> summaries = cancellations.summaries();
+        assertEquals(1, summaries.size());
+        assertEquals("b@x.com", summaries.get(0).getTo());
+        assertTrue(summaries.get(0).getBody().contains("[P2, P4]"));
+    }
+}
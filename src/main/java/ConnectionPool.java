@@ -0,0 +1,509 @@
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class ConnectionPool implements DataSource, AutoCloseable {
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final Deque<PhysicalConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private volatile int statementCacheSize = 64;
+    private volatile long connectionTimeoutMillis = 30000;
+    private volatile int validationTimeoutSeconds = 2;
+    private volatile long aliveBypassWindowMillis = 500;
+    private volatile long leakDetectionThresholdMillis;
+    private ScheduledExecutorService leakDetector;
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool of at most maxSize connections to a MySQL database.
+     * Connections are opened on demand and reused, most recently returned first.
+     *
+     * @param url      - jdbc url of the database
+     * @param userName - MySQL userName
+     * @param password - MySQL password
+     * @param maxSize  - maximum number of open connections
+     */
+
+    public ConnectionPool(String url, String userName, String password, int maxSize) {
+        this(() -> DriverManager.getConnection(url, userName, password), maxSize);
+    }
+
+    /**
+     * Creates a pool of at most maxSize connections opened by the given factory.
+     *
+     * @param factory - opens a new physical connection
+     * @param maxSize - maximum number of open connections
+     */
+
+    public ConnectionPool(ConnectionFactory factory, int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be at least 1: " + maxSize);
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * borrows a connection, waiting up to the connection timeout if all of them are in use.
+     * Connections idle for longer than the alive bypass window are checked with isValid() before they are
+     * handed out and replaced if broken. Recently used ones are handed out without the extra round trip;
+     * if such a connection has died, the failing statement reports it and it is discarded when closed.
+     * Closing the returned connection gives it back to the pool: an open transaction is rolled back,
+     * auto commit is switched back on and statements left open on it are closed.
+     *
+     * @return pooled connection, must be closed by the caller (try-with-resources)
+     * @throws SQLException if no connection became free in time or a new one could not be opened
+     */
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire(1);
+        try {
+            return borrow();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * borrows several connections in one step, waiting up to the connection timeout until all of them are free.
+     * Use it instead of nested getConnection() calls when one task needs two connections at the same time:
+     * callers that each hold one connection while waiting for another can use up a full pool and all time out.
+     *
+     * @param count - number of connections, at most the pool size
+     * @return pooled connections, each must be closed by the caller
+     * @throws SQLException if the connections did not become free in time or could not be opened
+     */
+
+    public Connection[] getConnections(int count) throws SQLException {
+        if (count < 1 || count > maxSize)
+            throw new SQLException("Cannot borrow " + count + " connections from a pool of " + maxSize);
+        acquire(count);
+        Connection[] connections = new Connection[count];
+        int borrowedCount = 0;
+        try {
+            for (; borrowedCount < count; borrowedCount++) {
+                connections[borrowedCount] = borrow();
+            }
+            return connections;
+        } catch (SQLException | RuntimeException e) {
+            permits.release(count - borrowedCount);
+            for (int i = 0; i < borrowedCount; i++) {
+                try {
+                    connections[i].close();
+                } catch (SQLException ignored) {
+                    // the connection is discarded, its permit is released all the same
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void acquire(int count) throws SQLException {
+        if (closed)
+            throw new SQLException("Connection pool is closed");
+        try {
+            if (!permits.tryAcquire(count, connectionTimeoutMillis, TimeUnit.MILLISECONDS))
+                throw new SQLException("No connection available after " + connectionTimeoutMillis + " ms ("
+                        + maxSize + " in use)", "08001");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", "08001", e);
+        }
+    }
+
+    // hands out an idle connection or opens a new one; the caller holds a permit for it
+    private Connection borrow() throws SQLException {
+        PhysicalConnection physical;
+        while ((physical = pollIdle()) != null) {
+            if (System.currentTimeMillis() - physical.lastUsed < aliveBypassWindowMillis || isValid(physical.connection))
+                break;
+            discard(physical);
+        }
+        if (physical == null)
+            physical = new PhysicalConnection(factory.create());
+        PooledConnection pooled = new PooledConnection(physical);
+        borrowed.add(pooled);
+        return pooled.proxy;
+    }
+
+    /**
+     * the pool always connects with its own credentials.
+     *
+     * @throws SQLFeatureNotSupportedException
+     */
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("ConnectionPool connects with its own credentials");
+    }
+
+    /**
+     * closes every idle connection and stops handing out new ones.
+     * Borrowed connections are closed when they are given back.
+     */
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            if (leakDetector != null)
+                leakDetector.shutdownNow();
+        }
+        PhysicalConnection physical;
+        while ((physical = pollIdle()) != null) {
+            discard(physical);
+        }
+    }
+
+    /**
+     * returns a cached PreparedStatement for the SQL on the physical connection behind a borrowed connection.
+     * the statement stays open (and prepared on the server) after the connection is given back, so the next
+     * borrower of the same connection only binds and executes it. It belongs to the pool: do not close it,
+     * and only use it while the connection is borrowed.
+     *
+     * @param conn - connection borrowed from this pool
+     * @param sql  - statement with ? placeholders
+     * @return prepared statement with cleared parameters
+     * @throws SQLException
+     */
+
+    public PreparedStatement prepareCached(Connection conn, String sql) throws SQLException {
+        if (!Proxy.isProxyClass(conn.getClass()) || !(Proxy.getInvocationHandler(conn) instanceof PooledConnection))
+            throw new SQLException("Connection was not borrowed from this pool");
+        PooledConnection pooled = (PooledConnection) Proxy.getInvocationHandler(conn);
+        if (pooled.returned)
+            throw new SQLException("Connection has been returned to the pool", "08003");
+        PhysicalConnection physical = pooled.physical;
+        if (physical.statementCache == null)
+            physical.statementCache = new StatementCache(physical.connection, statementCacheSize);
+        return physical.statementCache.prepare(sql);
+    }
+
+    /**
+     * setter method for how many prepared statements prepareCached() keeps open per connection.
+     * applies to connections opened after the call.
+     *
+     * @param statementCacheSize - statements per connection
+     */
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = Math.max(1, statementCacheSize);
+    }
+
+    /**
+     * @return prepareCached() calls answered from the cache, over the connections currently borrowed
+     */
+
+    public long getStatementCacheHits() {
+        long hits = 0;
+        for (PooledConnection pooled : borrowed) {
+            StatementCache cache = pooled.physical.statementCache;
+            if (cache != null)
+                hits += cache.getHits();
+        }
+        return hits;
+    }
+
+    /**
+     * @return number of connections currently borrowed
+     */
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return number of open connections waiting in the pool
+     */
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * @return maximum number of open connections
+     */
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * setter method for how long getConnection() waits for a free connection.
+     *
+     * @param connectionTimeoutMillis - milliseconds
+     */
+
+    public void setConnectionTimeout(long connectionTimeoutMillis) {
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+    }
+
+    /**
+     * setter method for the isValid() timeout used on idle connections.
+     *
+     * @param validationTimeoutSeconds - seconds
+     */
+
+    public void setValidationTimeout(int validationTimeoutSeconds) {
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+    }
+
+    /**
+     * setter method for how long a returned connection is trusted without isValid().
+     * Every isValid() is a ping to the server, so validating each borrow would double the round trips
+     * of short calls. 0 validates every borrow.
+     *
+     * @param aliveBypassWindowMillis - milliseconds
+     */
+
+    public void setAliveBypassWindow(long aliveBypassWindowMillis) {
+        this.aliveBypassWindowMillis = aliveBypassWindowMillis;
+    }
+
+    /**
+     * setter method for leak detection.
+     * a connection that is kept longer than the threshold is reported once, with the stack trace of the
+     * code that borrowed it. 0 turns leak detection off.
+     *
+     * @param leakDetectionThresholdMillis - milliseconds
+     */
+
+    public synchronized void setLeakDetectionThreshold(long leakDetectionThresholdMillis) {
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        if (leakDetectionThresholdMillis > 0 && leakDetector == null && !closed) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "connection-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(100, leakDetectionThresholdMillis / 2);
+            leakDetector.scheduleAtFixedRate(this::reportLeaks, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return connections borrowed for longer than the leak detection threshold, reported or not
+     */
+
+    public int getLeakCount() {
+        long threshold = leakDetectionThresholdMillis;
+        if (threshold <= 0)
+            return 0;
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (PooledConnection pooled : borrowed) {
+            if (now - pooled.borrowedAt > threshold)
+                count++;
+        }
+        return count;
+    }
+
+    private void reportLeaks() {
+        long threshold = leakDetectionThresholdMillis;
+        if (threshold <= 0)
+            return;
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > threshold) {
+                pooled.leakReported = true;
+                System.out.println("Possible connection leak: connection borrowed " + (now - pooled.borrowedAt)
+                        + " ms ago has not been closed. Borrowed at:");
+                pooled.borrowTrace.printStackTrace(System.out);
+            }
+        }
+    }
+
+    private PhysicalConnection pollIdle() {
+        synchronized (idle) {
+            return idle.pollFirst();
+        }
+    }
+
+    private boolean isValid(Connection physical) {
+        try {
+            return physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void giveBack(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        Connection physical = pooled.physical.connection;
+        boolean reusable = !closed;
+        for (Statement st : pooled.statements) {
+            closeQuietly(st);
+        }
+        try {
+            if (reusable && !physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            reusable = reusable && !physical.isClosed();
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (reusable) {
+            pooled.physical.lastUsed = System.currentTimeMillis();
+            synchronized (idle) {
+                idle.offerFirst(pooled.physical);
+            }
+        } else {
+            discard(pooled.physical);
+        }
+        permits.release();
+    }
+
+    private void discard(PhysicalConnection physical) {
+        if (physical.statementCache != null)
+            physical.statementCache.close();
+        closeQuietly(physical.connection);
+    }
+
+    private static boolean isClosed(Statement st) {
+        try {
+            return st.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ignore) {
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this))
+            return iface.cast(this);
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * opens a new physical connection for the pool.
+     */
+
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private static class PhysicalConnection {
+        private final Connection connection;
+        private StatementCache statementCache;
+        private volatile long lastUsed;
+
+        PhysicalConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private class PooledConnection implements InvocationHandler {
+        private final PhysicalConnection physical;
+        private final Connection proxy;
+        private final List<Statement> statements = new ArrayList<>();
+        private final long borrowedAt = System.currentTimeMillis();
+        private final Exception borrowTrace = new Exception("connection borrowed here");
+        private volatile boolean leakReported;
+        private volatile boolean returned;
+
+        PooledConnection(PhysicalConnection physical) {
+            this.physical = physical;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || physical.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical.connection;
+                default:
+                    break;
+            }
+            if (returned)
+                throw new SQLException("Connection has been returned to the pool", "08003");
+            try {
+                Object result = method.invoke(physical.connection, args);
+                if (result instanceof Statement) {
+                    if (statements.size() >= 64)
+                        statements.removeIf(ConnectionPool::isClosed);
+                    statements.add((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
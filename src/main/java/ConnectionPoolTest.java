@@ -0,0 +1,189 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+
+    private final List<FakeConnection> opened = new ArrayList<>();
+
+    private Connection open() {
+        FakeConnection fake = new FakeConnection();
+        opened.add(fake);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isValid":
+                            fake.validations++;
+                            return fake.valid && !fake.closed;
+                        case "isClosed":
+                            return fake.closed;
+                        case "close":
+                            fake.closed = true;
+                            return null;
+                        case "getAutoCommit":
+                            return fake.autoCommit;
+                        case "setAutoCommit":
+                            fake.autoCommit = (Boolean) args[0];
+                            return null;
+                        case "rollback":
+                            fake.rollbacks++;
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    /**
+     * borrow, give back and borrow again
+     * check the same physical connection is reused
+     */
+    @Test
+    void reusesReturnedConnection() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(this::open, 2);
+        pool.getConnection().close();
+        assertEquals(1, pool.getIdleCount());
+        try (Connection conn = pool.getConnection()) {
+            assertEquals(1, pool.getActiveCount());
+            assertFalse(conn.isClosed());
+        }
+        assertEquals(1, opened.size());
+        assertEquals(0, pool.getActiveCount());
+        pool.close();
+        assertTrue(opened.get(0).closed);
+    }
+
+    /**
+     * borrow every connection
+     * check the next borrow times out instead of opening more
+     */
+    @Test
+    void timesOutWhenExhausted() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(this::open, 1);
+        pool.setConnectionTimeout(50);
+        Connection conn = pool.getConnection();
+        assertThrows(SQLException.class, pool::getConnection);
+        conn.close();
+        pool.getConnection().close();
+        assertEquals(1, opened.size());
+    }
+
+    /**
+     * let two threads each take two connections at once, many times, from a pool of three
+     * check none of them times out, as they would when holding one connection and waiting for a second
+     */
+    @Test
+    void borrowsSeveralAtOnce() throws Exception {
+        ConnectionPool pool = new ConnectionPool(this::open, 3);
+        pool.setConnectionTimeout(2000);
+        List<Throwable> errors = new ArrayList<>();
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        Connection[] pair = pool.getConnections(2);
+                        assertEquals(2, pair.length);
+                        pair[0].close();
+                        pair[1].close();
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), errors);
+        assertEquals(0, pool.getActiveCount());
+        assertThrows(SQLException.class, () -> pool.getConnections(4));
+    }
+
+    /**
+     * fail to open the second of two connections
+     * check the first is given back and both permits are free again
+     */
+    @Test
+    void releasesPartialBorrow() throws SQLException {
+        int[] creates = {0};
+        ConnectionPool pool = new ConnectionPool(() -> {
+            if (++creates[0] == 2)
+                throw new SQLException("connection refused");
+            return open();
+        }, 2);
+        pool.setConnectionTimeout(50);
+        assertThrows(SQLException.class, () -> pool.getConnections(2));
+        assertEquals(0, pool.getActiveCount());
+        Connection[] pair = pool.getConnections(2);
+        pair[0].close();
+        pair[1].close();
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * break an idle connection
+     * check it is closed and replaced on the next borrow
+     */
+    @Test
+    void replacesInvalidConnection() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(this::open, 2);
+        pool.setAliveBypassWindow(0);
+        pool.getConnection().close();
+        opened.get(0).valid = false;
+        pool.getConnection().close();
+        assertEquals(2, opened.size());
+        assertTrue(opened.get(0).closed);
+        assertFalse(opened.get(1).closed);
+    }
+
+    /**
+     * borrow a connection that was given back a moment ago, then one idle past the bypass window
+     * check only the idle one is pinged with isValid()
+     */
+    @Test
+    void skipsValidationOfRecentlyUsed() throws Exception {
+        ConnectionPool pool = new ConnectionPool(this::open, 1);
+        pool.setAliveBypassWindow(200);
+        pool.getConnection().close();
+        pool.getConnection().close();
+        assertEquals(0, opened.get(0).validations);
+        Thread.sleep(250);
+        pool.getConnection().close();
+        assertEquals(1, opened.get(0).validations);
+        assertEquals(1, opened.size());
+    }
+
+    /**
+     * give back a connection in the middle of a transaction
+     * check the transaction is rolled back and the handle can no longer be used
+     */
+    @Test
+    void rollsBackOnReturn() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(this::open, 1);
+        Connection conn = pool.getConnection();
+        conn.setAutoCommit(false);
+        conn.close();
+        assertEquals(1, opened.get(0).rollbacks);
+        assertTrue(opened.get(0).autoCommit);
+        assertTrue(conn.isClosed());
+        assertThrows(SQLException.class, conn::commit);
+    }
+
+    private static class FakeConnection {
+        boolean valid = true;
+        int validations;
+        boolean closed;
+        boolean autoCommit = true;
+        int rollbacks;
+    }
+}
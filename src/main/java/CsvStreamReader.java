@@ -0,0 +1,149 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+
+public class CsvStreamReader implements Closeable {
+    public static final int DEFAULT_BATCH_SIZE = 2000;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private final BufferedReader reader;
+    private final String[] headers;
+    private final int[] types;
+    private final String fileName;
+    private long lineNumber;
+
+    /**
+     * Opens a csv file for streaming. Only the header line is read here; rows are parsed in batches afterwards.
+     * The header must have one column per type, and so must every row.
+     *
+     * @param fileName - csv filename
+     * @param types    - integer array of types (STRING, DATE, INT etc..) defined in QueryMaker.java
+     * @throws IOException
+     */
+
+    public CsvStreamReader(String fileName, int[] types) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(fileName);
+        }
+        this.reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), READ_BUFFER_SIZE), READ_BUFFER_SIZE);
+        this.fileName = fileName;
+        this.types = types;
+        String headerLine = reader.readLine();
+        this.headers = headerLine == null ? new String[0] : headerLine.split(",", -1);
+        this.lineNumber = 1;
+        if (headerLine != null && headers.length != types.length) {
+            reader.close();
+            throw new IOException(fileName + ":1 header has " + headers.length + " columns, expected " + types.length);
+        }
+    }
+
+    /**
+     * @return column names found on the first line of the csv file
+     */
+
+    public String[] getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return number of lines consumed so far, header included
+     */
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * fills the given buffer with the next rows of the file, converting every column to its declared type:
+     * STRING -> String, DATE -> java.sql.Date, INT -> Integer, DOUBLE -> Double.
+     * The buffer is reused by the caller, so memory stays fixed regardless of the file size.
+     *
+     * @param batch - 2D buffer, each row must be at least types.length long
+     * @return number of rows written into the buffer, 0 once the end of file is reached
+     * @throws IOException if a row has more or fewer columns than the header, or a value does not parse
+     */
+
+    public int readBatch(Object[][] batch) throws IOException {
+        int count = 0;
+        String line;
+        while (count < batch.length && (line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.endsWith("\r"))
+                line = line.substring(0, line.length() - 1);
+            if (line.isEmpty())
+                continue;
+            parseLine(line, batch[count]);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * streams the whole file through the handler in bounded batches.
+     *
+     * @param batchSize - maximum number of rows handed to the handler at once
+     * @param handler   - receives every batch; the array is reused between calls
+     * @return total number of rows read
+     * @throws IOException
+     * @throws SQLException
+     */
+
+    public long stream(int batchSize, BatchHandler handler) throws IOException, SQLException {
+        Object[][] batch = new Object[batchSize][types.length];
+        long total = 0;
+        int count;
+        while ((count = readBatch(batch)) > 0) {
+            handler.handle(batch, count);
+            total += count;
+        }
+        return total;
+    }
+
+    private void parseLine(String line, Object[] row) throws IOException {
+        int start = 0;
+        for (int i = 0; i < types.length; i++) {
+            int end = line.indexOf(',', start);
+            if (i == types.length - 1) {
+                // an extra field would otherwise be glued onto the last column
+                if (end >= 0)
+                    throw new IOException(fileName + ":" + lineNumber + " has more than " + types.length + " columns");
+                end = line.length();
+            }
+            if (end < 0)
+                throw new IOException(fileName + ":" + lineNumber + " expected " + types.length + " columns");
+            String field = line.substring(start, end);
+            try {
+                row[i] = types[i] == QueryMaker.STRING ? field
+                        : types[i] == QueryMaker.DATE ? java.sql.Date.valueOf(field)
+                        : types[i] == QueryMaker.INT ? (Object) Integer.parseInt(field)
+                        : (Object) Double.parseDouble(field);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(fileName + ":" + lineNumber + " column " + (i + 1) + " is not valid: " + field, e);
+            }
+            start = end + 1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Callback that receives each parsed batch of csv rows.
+     */
+
+    public interface BatchHandler {
+        void handle(Object[][] rows, int count) throws SQLException;
+    }
+}
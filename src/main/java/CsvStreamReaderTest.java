@@ -0,0 +1,63 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvStreamReaderTest {
+    private static final int[] TYPES = {QueryMaker.DATE, QueryMaker.STRING, QueryMaker.INT};
+
+    private static Path csv(String content) throws IOException {
+        Path file = Files.createTempFile("orders", ".csv");
+        file.toFile().deleteOnExit();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * read rows with the header's column count, a windows line ending and a blank line
+     * check every row is parsed to its column types
+     */
+    @Test
+    void readsMatchingRows() throws IOException {
+        Path file = csv("date,cust_email,product_quantity\n2020-01-01,a@x.com,1\r\n\n2020-01-02,b@x.com,2\n");
+        Object[][] batch = new Object[4][TYPES.length];
+        try (CsvStreamReader reader = new CsvStreamReader(file.toString(), TYPES)) {
+            assertEquals(2, reader.readBatch(batch));
+            assertEquals(0, reader.readBatch(batch));
+        }
+        assertEquals(java.sql.Date.valueOf("2020-01-01"), batch[0][0]);
+        assertEquals("b@x.com", batch[1][1]);
+        assertEquals(2, batch[1][2]);
+    }
+
+    /**
+     * read a row with an extra field, and one with a missing field
+     * check both are rejected with their line number instead of merging or shifting fields
+     */
+    @Test
+    void rejectsRowsNotMatchingHeader() throws IOException {
+        Path extra = csv("date,cust_email,product_quantity\n2020-01-01,a@x.com,1\n2020-01-01,b@x.com,2,3\n");
+        try (CsvStreamReader reader = new CsvStreamReader(extra.toString(), TYPES)) {
+            IOException e = assertThrows(IOException.class, () -> reader.readBatch(new Object[4][TYPES.length]));
+            assertTrue(e.getMessage().contains(":3 "), e.getMessage());
+        }
+        Path missing = csv("date,cust_email,product_quantity\n2020-01-01,a@x.com\n");
+        try (CsvStreamReader reader = new CsvStreamReader(missing.toString(), TYPES)) {
+            assertThrows(IOException.class, () -> reader.readBatch(new Object[4][TYPES.length]));
+        }
+    }
+
+    /**
+     * open a file whose header has one column too many
+     * check it is refused before any row is read
+     */
+    @Test
+    void rejectsHeaderNotMatchingTypes() throws IOException {
+        Path file = csv("date,cust_email,product_quantity,note\n2020-01-01,a@x.com,1,x\n");
+        assertThrows(IOException.class, () -> new CsvStreamReader(file.toString(), TYPES));
+    }
+}
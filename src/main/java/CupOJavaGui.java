@@ -1,14 +1,16 @@
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.stream.Stream;
 
 public class CupOJavaGui {
 
     public static final int SEARCH = 0;
     public static final int DELETE = 1;
     public static final int button3 = 2;
+    public static final int MAX_ROWS = 1000;
     private final QueryMaker qm;
     JButton[] buttons;
     JTable centerDisplayTable;
@@ -19,6 +21,7 @@ public class CupOJavaGui {
     GridBagLayout eastGbl;
     JFrame frame;
     JLabel guiTitle;
+    JLabel rowNotice;
     JPanel panelCenter;
     JPanel panelEast;
     JPanel panelNorth;
@@ -31,11 +34,23 @@ public class CupOJavaGui {
         frame = new JFrame("Cup O' Java");
         getTitlePanelNorth("This is my location");
         getDisplayTableCenter();
+        getRowNoticeSouth();
         getOptionsPanelWest(new String[]{"SEARCH", " Button2", "Button3"});
         getTableListPanelEast(new String[]{"Button1", " Button2", "Button3", "Button4"});
         frame.setLocationRelativeTo(null);
-        ResultSet rs = qm.generateQuery(" SELECT * FROM " + qm.getTableName());
-        refresh(qm.extractResults(rs, false));
+        // only the first MAX_ROWS rows are fetched from the server cursor, however big the table is;
+        // one more is read to tell whether the table was cut off, and only then are its rows counted
+        Object[][] data;
+        try (Stream<Object[]> rows = qm.stream("SELECT * FROM " + qm.getTableName(), QueryMaker::rowValues)) {
+            data = rows.limit(MAX_ROWS + 1).toArray(Object[][]::new);
+        }
+        if (data.length > MAX_ROWS) {
+            long total = qm.query("SELECT COUNT(*) FROM " + qm.getTableName(), rs -> rs.next() ? rs.getLong(1) : 0L);
+            refresh(Arrays.copyOf(data, MAX_ROWS));
+            rowNotice.setText("Showing the first " + MAX_ROWS + " of " + total + " rows");
+        } else {
+            refresh(data);
+        }
         frame.pack();
         frame.setVisible(true);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -51,6 +66,7 @@ public class CupOJavaGui {
 
     private void refresh(Object[][] data) throws SQLException {
         centerDisplayData = data;
+        rowNotice.setText(data.length + " rows");
         DefaultTableModel dm = (DefaultTableModel) centerDisplayTable.getModel();
         dm.setDataVector(this.centerDisplayData, qm.getColumnNames());
         dm.fireTableDataChanged();
@@ -125,6 +141,12 @@ public class CupOJavaGui {
         frame.getContentPane().add(panelCenter, BorderLayout.CENTER);
     }
 
+    // row count under the table, so a cut off table is not mistaken for the whole one
+    private void getRowNoticeSouth() {
+        rowNotice = new JLabel();
+        frame.getContentPane().add(rowNotice, BorderLayout.SOUTH);
+    }
+
     private void getOptionsPanelWest(String[] buttonNames) {
         westGbl = new GridBagLayout();
         westGbc = new GridBagConstraints();
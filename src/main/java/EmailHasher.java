@@ -0,0 +1,148 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class EmailHasher {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    });
+    private final Set<ByteBuffer> known = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Hashes customer emails while orders are streamed in, so they reach the database already hashed
+     * as the 16 byte MD5 digest hash_ref is keyed by. Every thread reuses its own MessageDigest.
+     * Hashes already committed to hash_ref are kept in a set, so each customer is sent to hash_ref
+     * once per program run instead of once per order. Each transaction collects its own new customers
+     * in a Customers object, so concurrent transactions never write or drop each other's customers.
+     */
+
+    public EmailHasher() {
+    }
+
+    /**
+     * @param email - customer email
+     * @return MD5 digest of the UTF-8 email, the same value as MySQL UNHEX(MD5(email))
+     */
+
+    public static byte[] md5(String email) {
+        return MD5.get().digest(email.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param email - customer email
+     * @return lower case MD5 hex of the UTF-8 email, the same value as MySQL MD5(email)
+     */
+
+    public static String md5Hex(String email) {
+        byte[] digest = md5(email);
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >>> 4) & 0x0f];
+            hex[2 * i + 1] = HEX[digest[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @return a new, empty set of customers for one transaction
+     */
+
+    public Customers customers() {
+        return new Customers();
+    }
+
+    /**
+     * forgets which customers were committed, e.g. after the database was recreated.
+     * They are sent to hash_ref again the next time they are hashed.
+     */
+
+    public void forgetAll() {
+        known.clear();
+    }
+
+    /**
+     * @return number of customers committed to hash_ref by this hasher
+     */
+
+    public int getKnownCount() {
+        return known.size();
+    }
+
+    /**
+     * the customers hashed by one transaction that were not committed to hash_ref yet.
+     * Used by the thread running the transaction only. After a rollback just drop it: its customers
+     * were never marked as committed, so the next transaction hashing them writes them again.
+     */
+
+    public class Customers {
+        private final Map<ByteBuffer, String> fresh = new HashMap<>();
+
+        private Customers() {
+        }
+
+        /**
+         * hashes an email and remembers it for hash_ref if it was not committed before.
+         *
+         * @param email - customer email
+         * @return MD5 digest of the email, null for a null email
+         */
+
+        public byte[] hash(String email) {
+            if (email == null)
+                return null;
+            byte[] hashed = md5(email);
+            ByteBuffer key = ByteBuffer.wrap(hashed);
+            if (!known.contains(key))
+                fresh.putIfAbsent(key, email);
+            return hashed;
+        }
+
+        /**
+         * queues the customers onto a hash_ref insert with the columns hashed_email, unhashed_email.
+         * Use an INSERT IGNORE insert, so a customer another transaction already wrote is skipped by the primary key.
+         *
+         * @param inserter - bulk inserter for hash_ref with the columns above
+         * @return number of customers queued
+         * @throws SQLException
+         */
+
+        public int write(BulkInserter inserter) throws SQLException {
+            int count = 0;
+            for (Map.Entry<ByteBuffer, String> customer : fresh.entrySet()) {
+                if (known.contains(customer.getKey()))
+                    continue;
+                inserter.addRow(new Object[]{customer.getKey().array(), customer.getValue()});
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * marks the customers as written to hash_ref. Call once the transaction that wrote them has committed.
+         */
+
+        public void committed() {
+            known.addAll(fresh.keySet());
+            fresh.clear();
+        }
+
+        /**
+         * @return number of hashed customers not committed to hash_ref yet
+         */
+
+        public int size() {
+            return fresh.size();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailHasherTest {
+
+    private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+
+    // hash_ref insert that records the unhashed email of every queued row
+    private BulkInserter newInserter() throws SQLException {
+        String[] email = new String[1];
+        PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("setString"))
+                        email[0] = (String) args[1];
+                    else if (method.getName().equals("addBatch"))
+                        written.add(email[0]);
+                    return null;
+                });
+        Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> method.getName().equals("prepareStatement") ? ps : null);
+        return new BulkInserter(connection, "INSERT IGNORE INTO", "hash_ref",
+                new String[]{"hashed_email", "unhashed_email"}, new int[]{QueryMaker.BINARY, QueryMaker.STRING}, 1 << 20);
+    }
+
+    /**
+     * hash known values, including a non ASCII email
+     * check they match MySQL MD5()
+     */
+    @Test
+    void matchesMysqlMd5() {
+        assertEquals("0cc175b9c0f1b6a831c399e269772661", EmailHasher.md5Hex("a"));
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", EmailHasher.md5Hex(""));
+        assertEquals(32, EmailHasher.md5Hex("zo\u00eb@example.com").length());
+        assertEquals(16, EmailHasher.md5("a").length);
+        assertEquals((byte) 0x0c, EmailHasher.md5("a")[0]);
+    }
+
+    /**
+     * hash the same customers in several concurrent transactions, each committing its own
+     * check each transaction writes only its own customers and a committed customer is not written again
+     */
+    @Test
+    void keepsCustomersPerTransaction() throws Exception {
+        EmailHasher hasher = new EmailHasher();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<byte[][]>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 500;
+            results.add(pool.submit(() -> {
+                EmailHasher.Customers customers = hasher.customers();
+                byte[][] hashes = new byte[1000][];
+                for (int i = 0; i < 1000; i++) {
+                    hashes[i] = customers.hash("c" + (offset + i) + "@x.com");
+                }
+                try (BulkInserter inserter = newInserter()) {
+                    customers.write(inserter);
+                }
+                customers.committed();
+                return hashes;
+            }));
+        }
+        for (int t = 0; t < 4; t++) {
+            byte[][] hashes = results.get(t).get();
+            for (int i = 0; i < 1000; i++) {
+                assertArrayEquals(EmailHasher.md5("c" + (t * 500 + i) + "@x.com"), hashes[i]);
+            }
+        }
+        pool.shutdown();
+
+        assertEquals(2500, hasher.getKnownCount());
+        assertEquals(2500, new HashSet<>(written).size());
+        EmailHasher.Customers again = hasher.customers();
+        again.hash("c7@x.com");
+        assertNull(again.hash(null));
+        assertEquals(0, again.size());
+    }
+
+    /**
+     * roll back one transaction while another one commits
+     * check only the rolled back customers are written again, and the committed ones stay known
+     */
+    @Test
+    void rollbackKeepsOtherTransactions() throws SQLException {
+        EmailHasher hasher = new EmailHasher();
+        EmailHasher.Customers first = hasher.customers();
+        EmailHasher.Customers second = hasher.customers();
+        first.hash("a@x.com");
+        first.hash("shared@x.com");
+        second.hash("b@x.com");
+        second.hash("shared@x.com");
+
+        try (BulkInserter inserter = newInserter()) {
+            assertEquals(2, first.write(inserter));
+        }
+        // first rolls back: it is dropped without committed()
+        try (BulkInserter inserter = newInserter()) {
+            assertEquals(2, second.write(inserter));
+        }
+        second.committed();
+        assertEquals(2, hasher.getKnownCount());
+
+        written.clear();
+        EmailHasher.Customers retry = hasher.customers();
+        retry.hash("a@x.com");
+        retry.hash("shared@x.com");
+        retry.hash("b@x.com");
+        try (BulkInserter inserter = newInserter()) {
+            assertEquals(1, retry.write(inserter));
+        }
+        assertEquals(Collections.singletonList("a@x.com"), written);
+    }
+}
@@ -0,0 +1,222 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+public class FulfilmentEngine {
+    public static final int PROCESSED = 1;
+    public static final int STOCK_OUT = 0;
+    private final IntIntMap inventory;
+    private final IntIntMap suppliers;
+    private final BitSet dirty = new BitSet();
+    private final int resupplyQuantity;
+
+    /**
+     * In-memory order fulfilment against inventory held in a primitive product_tid -> quantity map.
+     *
+     * @param resupplyQuantity - quantity added to a product every time an order runs it out of stock
+     * @param expectedProducts - number of products expected in inventory
+     */
+
+    public FulfilmentEngine(int resupplyQuantity, int expectedProducts) {
+        this.resupplyQuantity = resupplyQuantity;
+        this.inventory = new IntIntMap(expectedProducts, 0);
+        this.suppliers = new IntIntMap(expectedProducts, 0);
+    }
+
+    /**
+     * loads inventory quantities and suppliers from a result set of (product_tid, quantity, supplier_tid) rows.
+     *
+     * @param rs - result set with product_tid, quantity and supplier_tid in columns 1 to 3
+     * @throws SQLException
+     */
+
+    public void loadInventory(ResultSet rs) throws SQLException {
+        while (rs.next()) {
+            putProduct(rs.getInt(1), rs.getInt(2), rs.getInt(3));
+        }
+    }
+
+    /**
+     * adds or replaces a single product.
+     *
+     * @param productTid  - id representing product in SQL database
+     * @param quantity    - quantity in stock
+     * @param supplierTid - id representing the product supplier in SQL database
+     */
+
+    public void putProduct(int productTid, int quantity, int supplierTid) {
+        inventory.put(productTid, quantity);
+        suppliers.put(productTid, supplierTid);
+    }
+
+    /**
+     * decides a single order. If there is enough stock the quantity is taken out of inventory,
+     * otherwise the order is not filled and the product is resupplied.
+     * Products missing from inventory are treated as having no stock.
+     *
+     * @param productTid - id representing product in SQL database
+     * @param quantity   - ordered quantity
+     * @return PROCESSED or STOCK_OUT
+     */
+
+    public int fulfil(int productTid, int quantity) {
+        dirty.set(productTid);
+        return decide(productTid, quantity);
+    }
+
+    /**
+     * decides every order of the batch in row order and stores the result on each row.
+     *
+     * @param batch - orders sorted the way they should be served (date, customer)
+     */
+
+    public void fulfil(TransactionBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            batch.setResult(i, fulfil(batch.getProductTid(i), batch.getQuantity(i)));
+        }
+    }
+
+    /**
+     * decides the batch on several threads. Stock for one product never depends on another product,
+     * so the rows are split into partitions by product_tid and each partition is served in row order
+     * on its own task. The results are stored on the rows, so they are exactly the ones fulfil(batch) gives.
+     *
+     * @param batch      - orders sorted the way they should be served (date, customer)
+     * @param executor   - executor running the partitions, for example a ForkJoinPool
+     * @param partitions - number of partitions to split the batch into
+     * @throws InterruptedException
+     */
+
+    public void fulfil(TransactionBatch batch, ExecutorService executor, int partitions) throws InterruptedException {
+        int size = batch.size();
+        if (partitions <= 1 || size < partitions) {
+            fulfil(batch);
+            return;
+        }
+
+        // Sequential pre-pass: mark dirty products and add unknown ones, so the tasks below only
+        // replace values in the map and never resize it. Rows are bucketed by partition (counting sort).
+        int[] partitionOf = new int[size];
+        int[] starts = new int[partitions + 1];
+        for (int i = 0; i < size; i++) {
+            int productTid = batch.getProductTid(i);
+            dirty.set(productTid);
+            if (!inventory.containsKey(productTid))
+                inventory.put(productTid, 0);
+            int p = partition(productTid, partitions);
+            partitionOf[i] = p;
+            starts[p + 1]++;
+        }
+        for (int p = 0; p < partitions; p++) {
+            starts[p + 1] += starts[p];
+        }
+        int[] rows = new int[size];
+        int[] next = starts.clone();
+        for (int i = 0; i < size; i++) {
+            rows[next[partitionOf[i]]++] = i;
+        }
+
+        // Results share bitmap words across partitions, so the tasks decide into a byte per row and
+        // the bits are set once every task is done.
+        byte[] decided = new byte[size];
+        List<Callable<Void>> tasks = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            int from = starts[p];
+            int to = starts[p + 1];
+            tasks.add(() -> {
+                for (int k = from; k < to; k++) {
+                    int row = rows[k];
+                    decided[row] = (byte) decide(batch.getProductTid(row), batch.getQuantity(row));
+                }
+                return null;
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Fulfilment partition failed", e.getCause());
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            batch.setResult(i, decided[i]);
+        }
+    }
+
+    /**
+     * writes (date, supplier_tid, product_tid, quantity) supplier orders for every stock-out of the batch, in row order.
+     *
+     * @param batch    - batch already passed through fulfil()
+     * @param inserter - bulk insert on supplier_orders
+     * @throws SQLException
+     */
+
+    public void writeSupplierOrders(TransactionBatch batch, BulkInserter inserter) throws SQLException {
+        Object[] row = new Object[4];
+        row[3] = resupplyQuantity;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getResult(i) != STOCK_OUT)
+                continue;
+            row[0] = java.sql.Date.valueOf(LocalDate.ofEpochDay(batch.getDate(i)));
+            row[1] = suppliers.get(batch.getProductTid(i));
+            row[2] = batch.getProductTid(i);
+            inserter.addRow(row);
+        }
+    }
+
+    /**
+     * @param productTid - id representing product in SQL database
+     * @return supplier_tid of the product, 0 if unknown
+     */
+
+    public int getSupplier(int productTid) {
+        return suppliers.get(productTid);
+    }
+
+    /**
+     * @param productTid - id representing product in SQL database
+     * @return quantity currently in stock
+     */
+
+    public int getQuantity(int productTid) {
+        return inventory.get(productTid);
+    }
+
+    /**
+     * @return quantity added to a product on a stock-out
+     */
+
+    public int getResupplyQuantity() {
+        return resupplyQuantity;
+    }
+
+    /**
+     * @return product_tids touched by at least one order since the inventory was loaded
+     */
+
+    public BitSet getDirtyProducts() {
+        return dirty;
+    }
+
+    private int decide(int productTid, int quantity) {
+        int inStock = inventory.get(productTid);
+        if (quantity <= inStock) {
+            inventory.put(productTid, inStock - quantity);
+            return PROCESSED;
+        }
+        inventory.put(productTid, inStock + resupplyQuantity);
+        return STOCK_OUT;
+    }
+
+    private static int partition(int productTid, int partitions) {
+        int h = productTid * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % partitions;
+    }
+}
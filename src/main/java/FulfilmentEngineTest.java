@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FulfilmentEngineTest {
+
+    private static FulfilmentEngine newEngine() {
+        FulfilmentEngine engine = new FulfilmentEngine(50, 64);
+        for (int p_tid = 1; p_tid <= 40; p_tid++) {
+            engine.putProduct(p_tid, p_tid * 3, 100 + p_tid % 7);
+        }
+        return engine;
+    }
+
+    private static TransactionBatch newBatch(long seed, int size) {
+        Random random = new Random(seed);
+        TransactionBatch batch = new TransactionBatch(16);
+        for (int i = 0; i < size; i++) {
+            batch.add(18262 + i / 500, 1, 1 + random.nextInt(45), 1 + random.nextInt(20), 1 + random.nextInt(300));
+        }
+        return batch;
+    }
+
+    /**
+     * order more than is in stock
+     * check the order is not filled and the product is resupplied
+     */
+    @Test
+    void stockOut() {
+        FulfilmentEngine engine = newEngine();
+        assertEquals(FulfilmentEngine.PROCESSED, engine.fulfil(2, 6));
+        assertEquals(0, engine.getQuantity(2));
+        assertEquals(FulfilmentEngine.STOCK_OUT, engine.fulfil(2, 1));
+        assertEquals(50, engine.getQuantity(2));
+        assertEquals(102, engine.getSupplier(2));
+        assertTrue(engine.getDirtyProducts().get(2));
+        assertFalse(engine.getDirtyProducts().get(3));
+    }
+
+    /**
+     * run the same batch sequentially and split across threads
+     * check every row result and the final inventory match
+     */
+    @Test
+    void parallelMatchesSequential() throws InterruptedException {
+        TransactionBatch sequentialBatch = newBatch(7, 20000);
+        TransactionBatch parallelBatch = newBatch(7, 20000);
+        FulfilmentEngine sequential = newEngine();
+        FulfilmentEngine parallel = newEngine();
+
+        sequential.fulfil(sequentialBatch);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallel.fulfil(parallelBatch, pool, 16);
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int i = 0; i < sequentialBatch.size(); i++) {
+            assertEquals(sequentialBatch.getResult(i), parallelBatch.getResult(i));
+        }
+        for (int p_tid = 0; p_tid <= 46; p_tid++) {
+            assertEquals(sequential.getQuantity(p_tid), parallel.getQuantity(p_tid));
+        }
+        assertEquals(sequential.getDirtyProducts(), parallel.getDirtyProducts());
+    }
+}
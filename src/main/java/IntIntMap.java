@@ -0,0 +1,136 @@
+public class IntIntMap {
+    private static final int FREE_KEY = 0;
+    private static final float LOAD_FACTOR = 0.6f;
+    private final int missingValue;
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    /**
+     * Open addressing map from int keys to int values (linear probing, no boxing).
+     *
+     * @param expectedSize - number of entries expected, the map grows past it if needed
+     * @param missingValue - value returned by get() for keys that are not in the map
+     */
+
+    public IntIntMap(int expectedSize, int missingValue) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.missingValue = missingValue;
+        allocate(capacity);
+    }
+
+    /**
+     * @param key - key to look up
+     * @return value stored for the key, or the missing value
+     */
+
+    public int get(int key) {
+        if (key == FREE_KEY)
+            return hasFreeKey ? freeKeyValue : missingValue;
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    /**
+     * @param key - key to look up
+     * @return boolean value
+     */
+
+    public boolean containsKey(int key) {
+        if (key == FREE_KEY)
+            return hasFreeKey;
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * stores a value, replacing any previous value for the key.
+     * Replacing the value of an existing key never resizes the map.
+     *
+     * @param key   - key
+     * @param value - value
+     */
+
+    public void put(int key, int value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey)
+                size++;
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return;
+        }
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= threshold)
+            rehash(keys.length << 1);
+    }
+
+    /**
+     * @return number of entries
+     */
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return all keys in no particular order
+     */
+
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        if (hasFreeKey)
+            result[n++] = FREE_KEY;
+        for (int key : keys) {
+            if (key != FREE_KEY)
+                result[n++] = key;
+        }
+        return result;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        size = hasFreeKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntIntMapTest {
+
+    /**
+     * put values past the initial capacity
+     * check every value survives the resize and missing keys return the missing value
+     */
+    @Test
+    void putAndGet() {
+        IntIntMap map = new IntIntMap(4, -1);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i * 2);
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i * 2, map.get(i));
+        }
+        assertEquals(-1, map.get(1000));
+        assertFalse(map.containsKey(-5));
+    }
+
+    /**
+     * replace the value of an existing key and check the size does not change
+     */
+    @Test
+    void replaceValue() {
+        IntIntMap map = new IntIntMap(16, 0);
+        map.put(42, 1);
+        map.put(42, 7);
+        map.put(0, 3);
+        assertEquals(2, map.size());
+        assertEquals(7, map.get(42));
+        assertEquals(3, map.get(0));
+        assertTrue(map.containsKey(0));
+    }
+
+    @Test
+    void keys() {
+        IntIntMap map = new IntIntMap(16, 0);
+        map.put(5, 1);
+        map.put(0, 1);
+        map.put(-9, 1);
+        int[] keys = map.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(new int[]{-9, 0, 5}, keys);
+    }
+}
@@ -0,0 +1,189 @@
+import com.mysql.cj.jdbc.JdbcStatement;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LocalInfileLoader {
+    // ER_NOT_ALLOWED_COMMAND, ER_CLIENT_LOCAL_FILES_DISABLED, ER_LOAD_INFILE_CAPABILITY_DISABLED
+    private static final int[] LOCAL_INFILE_DISABLED_CODES = {1148, 3948, 3950};
+    private static final int MAX_WARNING_MESSAGES = 20;
+    private final Connection connection;
+
+    /**
+     * Loader that streams csv files to MySQL with LOAD DATA LOCAL INFILE.
+     * The connection must be opened with allowLoadLocalInfile=true, so keep it apart from the other connections.
+     *
+     * @param connection - open connection to load with
+     */
+
+    public LocalInfileLoader(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * checks if the exception means the server or driver refuses LOAD DATA LOCAL, so the caller can fall back.
+     *
+     * @param e - exception thrown by load()
+     * @return boolean value
+     */
+
+    public static boolean isLocalInfileDisabled(SQLException e) {
+        for (int code : LOCAL_INFILE_DISABLED_CODES) {
+            if (e.getErrorCode() == code)
+                return true;
+        }
+        String message = e.getMessage();
+        return message != null && message.toLowerCase().contains("local data is disabled");
+    }
+
+    /**
+     * sends the original csv file to the server through the Connector/J input stream hook.
+     * The first line is treated as a header and skipped.
+     *
+     * @param fileName    - csv filename
+     * @param tableName   - name of the table to load
+     * @param columnNames - names of the table columns, in csv column order
+     * @return row count, warnings and rejected lines of the load
+     * @throws IOException
+     * @throws SQLException
+     */
+
+    public Result load(String fileName, String tableName, String[] columnNames) throws IOException, SQLException {
+        String sql = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE " + tableName +
+                " CHARACTER SET utf8mb4 FIELDS TERMINATED BY ',' LINES TERMINATED BY '\\n' IGNORE 1 LINES" +
+                " ( " + String.join(", ", columnNames) + " )";
+
+        try (LineCountingInputStream in = new LineCountingInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+             Statement st = connection.createStatement()) {
+            st.unwrap(JdbcStatement.class).setLocalInfileInputStream(in);
+            long rowsLoaded = st.executeLargeUpdate(sql);
+
+            // only diagnostic statements keep the warnings of the load, so nothing else may run before these two
+            List<String> messages = new ArrayList<>();
+            try (ResultSet rs = st.executeQuery("SHOW WARNINGS LIMIT " + MAX_WARNING_MESSAGES)) {
+                while (rs.next()) {
+                    messages.add(rs.getString(1) + " " + rs.getInt(2) + ": " + rs.getString(3));
+                }
+            }
+            long warnings = messages.size();
+            try (ResultSet rs = st.executeQuery("SHOW COUNT(*) WARNINGS")) {
+                if (rs.next())
+                    warnings = Math.max(warnings, rs.getLong(1));
+            }
+            long dataLines = Math.max(0, in.getLineCount() - 1);
+            return new Result(rowsLoaded, warnings, Math.max(0, dataLines - rowsLoaded), messages);
+        }
+    }
+
+    /**
+     * Outcome of a single load.
+     */
+
+    public static class Result {
+        private final long rowsLoaded;
+        private final long warnings;
+        private final long rejects;
+        private final List<String> warningMessages;
+
+        /**
+         * @param rowsLoaded      - rows written to the table
+         * @param warnings        - warnings reported by the server
+         * @param rejects         - non blank data lines that did not become rows
+         * @param warningMessages - first few warning messages
+         */
+
+        public Result(long rowsLoaded, long warnings, long rejects, List<String> warningMessages) {
+            this.rowsLoaded = rowsLoaded;
+            this.warnings = warnings;
+            this.rejects = rejects;
+            this.warningMessages = warningMessages;
+        }
+
+        /**
+         * @return rows written to the table
+         */
+
+        public long getRowsLoaded() {
+            return rowsLoaded;
+        }
+
+        /**
+         * @return warnings reported by the server
+         */
+
+        public long getWarnings() {
+            return warnings;
+        }
+
+        /**
+         * @return non blank data lines that did not become rows (duplicates, malformed lines)
+         */
+
+        public long getRejects() {
+            return rejects;
+        }
+
+        /**
+         * @return first few warning messages, formatted as "Level Code: Message"
+         */
+
+        public List<String> getWarningMessages() {
+            return warningMessages;
+        }
+
+        @Override
+        public String toString() {
+            return rowsLoaded + " rows loaded, " + warnings + " warnings, " + rejects + " rejects";
+        }
+    }
+
+    // counts the lines holding anything but whitespace, blank and trailing lines never become rows
+    private static class LineCountingInputStream extends FilterInputStream {
+        private long lineCount;
+        private boolean lineHasData;
+
+        LineCountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getLineCount() {
+            return lineHasData ? lineCount + 1 : lineCount;
+        }
+
+        private void count(int b) {
+            if (b == '\n') {
+                if (lineHasData)
+                    lineCount++;
+                lineHasData = false;
+            } else if (b != '\r' && b != ' ' && b != '\t') {
+                lineHasData = true;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            for (int i = off; i < off + n; i++) {
+                count(b[i]);
+            }
+            return n;
+        }
+    }
+}
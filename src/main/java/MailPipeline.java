@@ -0,0 +1,422 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MailPipeline {
+    private static final Email END_OF_INBOX = new Email(-1, null, null, null);
+    private static final Notification END_OF_NOTIFICATIONS = new Notification(null, null);
+    private final ProductValidator validator;
+    private final OrderSink sink;
+    private final Notifier notifier;
+    private final int workers;
+    private final int notifiers;
+    private final int queueCapacity;
+
+    /**
+     * Ingests order emails in stages connected by bounded queues:
+     * fetch (caller thread) -> parse and validate (workers) -> persist (once the inbox is drained) -> notify,
+     * with the replies sent by a separate pool of notifier threads. Replies are held until the orders are
+     * persisted, so a customer is only told an order was received once it is stored; if storing fails the
+     * confirmations are replaced by a reply asking to send the order again.
+     * A full queue blocks the stage in front of it, so a slow mail server or database only slows
+     * the pipeline down instead of filling memory.
+     *
+     * @param validator     - checks that a product_id exists
+     * @param sink          - persists the orders that were not cancelled
+     * @param notifier      - sends one reply email, null to hand the replies to the sink with the orders
+     * @param workers       - parse and validate threads
+     * @param notifiers     - reply sending threads
+     * @param queueCapacity - emails (and replies) that may wait between two stages
+     */
+
+    public MailPipeline(ProductValidator validator, OrderSink sink, Notifier notifier, int workers, int notifiers, int queueCapacity) {
+        this.validator = validator;
+        this.sink = sink;
+        this.notifier = notifier;
+        this.workers = Math.max(1, workers);
+        this.notifiers = notifier == null ? 0 : Math.max(1, notifiers);
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * drains an inbox through the pipeline. Orders are persisted in inbox order, without the orders
+     * of customers who sent a cancellation email in the same inbox; each of those customers gets
+     * a single summary of what was cancelled.
+     *
+     * @param inbox - emails in arrival order; next() is the fetch stage and may block on the mail server
+     * @return counts of the run
+     * @throws SQLException         if validating or persisting failed
+     * @throws InterruptedException
+     */
+
+    public Result run(Iterator<Email> inbox) throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        BlockingQueue<Email> emails = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Notification> replyQueue = new ArrayBlockingQueue<>(queueCapacity);
+        List<Reply> replies = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> sending = new ArrayList<>();
+        List<Order> orders = new ArrayList<>();
+        Cancellations cancelled = new Cancellations();
+        AtomicInteger valid = new AtomicInteger();
+        AtomicInteger invalid = new AtomicInteger();
+        AtomicInteger sent = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        ExecutorService workerPool = Executors.newFixedThreadPool(workers);
+        ExecutorService notifierPool = Executors.newFixedThreadPool(Math.max(1, notifiers));
+        try {
+            for (int i = 0; i < notifiers; i++) {
+                sending.add(notifierPool.submit(() -> {
+                    Notification reply;
+                    while ((reply = replyQueue.take()) != END_OF_NOTIFICATIONS) {
+                        // one reply that cannot be sent must not stop the thread draining the queue
+                        try {
+                            if (notifier.send(reply.to, reply.body))
+                                sent.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            System.out.println("Reply to " + reply.to + " could not be sent: " + e);
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            List<Future<?>> deciding = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                deciding.add(workerPool.submit(() -> {
+                    Email email;
+                    while ((email = emails.take()) != END_OF_INBOX) {
+                        try {
+                            decide(email, orders, cancelled, replies, valid, invalid);
+                        } catch (SQLException | RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            // Stage 1: fetch. Blocks whenever the workers are queueCapacity emails behind.
+            int fetched = 0;
+            while (inbox.hasNext()) {
+                if (!offer(emails, inbox.next(), deciding))
+                    break;
+                fetched++;
+            }
+            for (int i = 0; i < workers; i++) {
+                offer(emails, END_OF_INBOX, deciding);
+            }
+            waitFor(deciding);
+
+            // Stage 4: persist, once every cancellation in the inbox is known.
+            orders.sort(Comparator.comparingLong(order -> order.sequence));
+            List<Transaction> inboxOrder = new ArrayList<>(orders.size());
+            for (Order order : orders) {
+                inboxOrder.add(order.transaction);
+            }
+            List<Transaction> kept = cancelled.apply(inboxOrder);
+            replies.sort(Comparator.comparingLong(reply -> reply.sequence));
+            List<Notification> held = new ArrayList<>(replies.size());
+            for (Reply reply : replies) {
+                held.add(reply.notification);
+            }
+            if (failure.get() == null && (!kept.isEmpty() || !held.isEmpty() || !cancelled.isEmpty())) {
+                try {
+                    sink.persist(kept, cancelled, notifier == null ? held : new ArrayList<>());
+                } catch (SQLException | RuntimeException e) {
+                    failure.set(e);
+                }
+            }
+
+            // Stage 5: notify, now that it is known whether the orders were stored.
+            if (notifier != null) {
+                List<Notification> outgoing = new ArrayList<>(held.size());
+                if (failure.get() == null) {
+                    outgoing.addAll(held);
+                    // one summary per cancelling customer, covering this inbox and their stored orders
+                    outgoing.addAll(cancelled.summaries());
+                } else {
+                    for (Reply reply : replies) {
+                        outgoing.add(reply.notStored);
+                    }
+                }
+                for (Notification reply : outgoing) {
+                    if (!offer(replyQueue, reply, sending))
+                        throw new IllegalStateException("Every notifier has stopped");
+                }
+            }
+            for (int i = 0; i < notifiers; i++) {
+                offer(replyQueue, END_OF_NOTIFICATIONS, sending);
+            }
+            waitFor(sending);
+
+            Exception e = failure.get();
+            if (e instanceof SQLException)
+                throw (SQLException) e;
+            if (e != null)
+                throw (RuntimeException) e;
+            return new Result(fetched, valid.get(), invalid.get(), cancelled.size(), kept.size(),
+                    notifier != null ? sent.get() : replies.size() + cancelled.summaries().size(),
+                    (System.nanoTime() - start) / 1000000);
+        } finally {
+            workerPool.shutdownNow();
+            notifierPool.shutdownNow();
+        }
+    }
+
+    private void decide(Email email, List<Order> orders, Cancellations cancelled, List<Reply> replies,
+                        AtomicInteger valid, AtomicInteger invalid) throws SQLException {
+        String[] emailInput = email.content.split(",");
+        if (emailInput[0].trim().equalsIgnoreCase("cancel")) {
+            System.out.println("Cancellation Email");
+            cancelled.add(email.sender);
+            return;
+        }
+
+        // Stage 2: parse. location, then product_id and quantity pairs.
+        String location = emailInput[0];
+        List<String> productIds = new ArrayList<>();
+        List<String> quantities = new ArrayList<>();
+        for (int k = 1; k + 1 < emailInput.length; k = k + 2) {
+            productIds.add(emailInput[k].trim());
+            quantities.add(emailInput[k + 1].trim());
+        }
+
+        // Stage 3: validate.
+        if (emailInput.length % 2 == 1 && isValid(location, productIds, quantities)) {
+            System.out.println("Valid order from email");
+            List<Order> parsed = new ArrayList<>(productIds.size());
+            for (int i = 0; i < productIds.size(); i++) {
+                parsed.add(new Order(email.sequence, new Transaction(email.sentDate, location, productIds.get(i),
+                        Integer.parseInt(quantities.get(i)), email.sender)));
+            }
+            synchronized (orders) {
+                orders.addAll(parsed);
+            }
+            valid.incrementAndGet();
+            replies.add(new Reply(email.sequence, new Notification(email.sender, "Order received. Your order will be stored to be processed\n"
+                    + "Your order included these products:\n" + productIds),
+                    new Notification(email.sender, "Order not received. It could not be stored, please send it again\n"
+                            + "The products you attempted to order:\n" + productIds)));
+        } else {
+            System.out.println("Invalid order from email");
+            invalid.incrementAndGet();
+            Notification reply = new Notification(email.sender, "Order not received. One of the inputs is invalid\n"
+                    + "The products you attempted to order:\n" + productIds);
+            replies.add(new Reply(email.sequence, reply, reply));
+        }
+    }
+
+    private boolean isValid(String location, List<String> productIds, List<String> quantities) throws SQLException {
+        if (location == null || location.length() != 5)
+            return false;
+        try {
+            Integer.parseInt(location);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        for (String quantity : quantities) {
+            try {
+                if (Integer.parseInt(quantity) <= 0)
+                    return false;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        for (String productId : productIds) {
+            if (!validator.exists(productId))
+                return false;
+        }
+        return true;
+    }
+
+    // queues an item unless every consumer of the queue has stopped, so a dead stage cannot block the others forever
+    private static <T> boolean offer(BlockingQueue<T> queue, T item, List<Future<?>> consumers) throws InterruptedException {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            boolean running = false;
+            for (Future<?> consumer : consumers) {
+                running |= !consumer.isDone();
+            }
+            if (!running)
+                return false;
+        }
+        return true;
+    }
+
+    private static void waitFor(List<Future<?>> futures) throws InterruptedException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Mail pipeline stage failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * checks that a product_id exists.
+     */
+
+    public interface ProductValidator {
+        boolean exists(String productId) throws SQLException;
+    }
+
+    /**
+     * persists the orders of one inbox drain and cancels the stored orders of cancelling customers
+     * (Cancellations.cancelStored). When no notifier sends them, the replies and the cancellation
+     * summaries are persisted as well.
+     */
+
+    public interface OrderSink {
+        void persist(List<Transaction> orders, Cancellations cancellations, List<Notification> replies) throws SQLException;
+    }
+
+    /**
+     * sends one reply email, returns false if it could not be sent.
+     */
+
+    public interface Notifier {
+        boolean send(String to, String body);
+    }
+
+    /**
+     * an email as read from the mailbox: sender address, sent date and the text of the order.
+     */
+
+    public static class Email {
+        private final long sequence;
+        private final String sender;
+        private final java.sql.Date sentDate;
+        private final String content;
+
+        /**
+         * @param sequence - position of the email in the inbox
+         * @param sender   - email address of the sender
+         * @param sentDate - date the email was sent
+         * @param content  - text of the email
+         */
+
+        public Email(long sequence, String sender, java.sql.Date sentDate, String content) {
+            this.sequence = sequence;
+            this.sender = sender;
+            this.sentDate = sentDate;
+            this.content = content == null ? "" : content;
+        }
+    }
+
+    /**
+     * counts and duration of one pipeline run.
+     */
+
+    public static class Result {
+        private final int emails;
+        private final int validOrders;
+        private final int invalidOrders;
+        private final int cancellations;
+        private final int ordersPersisted;
+        private final int repliesSent;
+        private final long millis;
+
+        Result(int emails, int validOrders, int invalidOrders, int cancellations, int ordersPersisted, int repliesSent, long millis) {
+            this.emails = emails;
+            this.validOrders = validOrders;
+            this.invalidOrders = invalidOrders;
+            this.cancellations = cancellations;
+            this.ordersPersisted = ordersPersisted;
+            this.repliesSent = repliesSent;
+            this.millis = millis;
+        }
+
+        public int getEmails() {
+            return emails;
+        }
+
+        public int getValidOrders() {
+            return validOrders;
+        }
+
+        public int getInvalidOrders() {
+            return invalidOrders;
+        }
+
+        public int getCancellations() {
+            return cancellations;
+        }
+
+        public int getOrdersPersisted() {
+            return ordersPersisted;
+        }
+
+        public int getRepliesSent() {
+            return repliesSent;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return emails + " emails (" + validOrders + " valid, " + invalidOrders + " invalid, " + cancellations
+                    + " cancellations), " + ordersPersisted + " order lines stored, " + repliesSent + " replies sent or queued in "
+                    + millis + " ms";
+        }
+    }
+
+    private static class Order {
+        private final long sequence;
+        private final Transaction transaction;
+
+        Order(long sequence, Transaction transaction) {
+            this.sequence = sequence;
+            this.transaction = transaction;
+        }
+    }
+
+    // the reply to one email, and the one sent instead if the orders could not be stored
+    private static class Reply {
+        private final long sequence;
+        private final Notification notification;
+        private final Notification notStored;
+
+        Reply(long sequence, Notification notification, Notification notStored) {
+            this.sequence = sequence;
+            this.notification = notification;
+            this.notStored = notStored;
+        }
+    }
+
+    /**
+     * a reply email to a customer.
+     */
+
+    public static class Notification {
+        private final String to;
+        private final String body;
+
+        public Notification(String to, String body) {
+            this.to = to;
+            this.body = body;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailPipelineTest {
+
+    private final List<Transaction> stored = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> replies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger validating = new AtomicInteger();
+    private final AtomicInteger maxValidating = new AtomicInteger();
+
+    private MailPipeline newPipeline(int workers, long validateMillis) {
+        return new MailPipeline(productId -> {
+            maxValidating.accumulateAndGet(validating.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(validateMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                validating.decrementAndGet();
+            }
+            return productId.startsWith("P");
+        }, (orders, cancellations, held) -> stored.addAll(orders), (to, body) -> {
+            // a reply may only go out once the orders are stored
+            assertFalse(stored.isEmpty());
+            return replies.add(to);
+        }, workers, workers, 2);
+    }
+
+    private static MailPipeline.Email email(long sequence, String sender, String content) {
+        return new MailPipeline.Email(sequence, sender, java.sql.Date.valueOf("2020-03-01"), content);
+    }
+
+    /**
+     * run valid, invalid and cancellation emails through the pipeline
+     * check orders are stored in inbox order without the cancelled customer's orders, and every email gets a reply
+     */
+    @Test
+    void storesOrdersAndRemovesCancellations() throws SQLException, InterruptedException {
+        List<MailPipeline.Email> inbox = Arrays.asList(
+                email(0, "a@x.com", "12345, P1, 2, P2, 1"),
+                email(1, "b@x.com", "12345, P3, 4"),
+                email(2, "c@x.com", "12345, X9, 4"),
+                email(3, "d@x.com", "1234, P1, 1"),
+                email(4, "b@x.com", "cancel"),
+                email(5, "e@x.com", "54321, P4, 3"));
+        MailPipeline.Result result = newPipeline(3, 0).run(inbox.iterator());
+
+        assertEquals(6, result.getEmails());
+        assertEquals(3, result.getValidOrders());
+        assertEquals(2, result.getInvalidOrders());
+        assertEquals(1, result.getCancellations());
+        assertEquals(3, result.getOrdersPersisted());
+        assertEquals(3, stored.size());
+        assertEquals("P1", stored.get(0).getProduct_ID());
+        assertEquals("P2", stored.get(1).getProduct_ID());
+        assertEquals("P4", stored.get(2).getProduct_ID());
+        //3 valid, 2 invalid, 1 cancellation summary
+        assertEquals(6, replies.size());
+        assertEquals(6, result.getRepliesSent());
+    }
+
+    /**
+     * validate emails that each take 50 ms with eight workers
+     * check several emails are validated at the same time
+     */
+    @Test
+    void validatesConcurrently() throws SQLException, InterruptedException {
+        List<MailPipeline.Email> inbox = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            inbox.add(email(i, "c" + i + "@x.com", "12345, P" + i + ", 1"));
+        }
+        MailPipeline.Result result = newPipeline(8, 50).run(inbox.iterator());
+
+        assertEquals(16, result.getOrdersPersisted());
+        assertEquals(16, replies.size());
+        assertTrue(maxValidating.get() > 1, "at most " + maxValidating.get() + " validation at a time");
+    }
+
+    /**
+     * run valid and invalid emails with a sink that fails to store them
+     * check no confirmation goes out: valid orders are told to send again, invalid ones keep their reply
+     */
+    @Test
+    void withholdsConfirmationsWhenStoringFails() throws InterruptedException {
+        List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+        MailPipeline pipeline = new MailPipeline(productId -> productId.startsWith("P"), (orders, cancellations, held) -> {
+            throw new SQLException("lock wait timeout");
+        }, (to, body) -> bodies.add(body), 2, 2, 2);
+
+        assertThrows(SQLException.class, () -> pipeline.run(Arrays.asList(
+                email(0, "a@x.com", "12345, P1, 2"),
+                email(1, "b@x.com", "12345, X1, 1"),
+                email(2, "c@x.com", "cancel")).iterator()));
+        assertEquals(2, bodies.size());
+        for (String body : bodies) {
+            assertTrue(body.startsWith("Order not received"), body);
+        }
+        assertEquals(1, bodies.stream().filter(body -> body.contains("could not be stored")).count());
+    }
+
+    /**
+     * run the pipeline without a notifier
+     * check the replies are handed to the sink together with the orders
+     */
+    @Test
+    void handsRepliesToSink() throws SQLException, InterruptedException {
+        List<MailPipeline.Notification> held = new ArrayList<>();
+        MailPipeline pipeline = new MailPipeline(productId -> true, (orders, cancellations, replies) -> {
+            stored.addAll(orders);
+            held.addAll(replies);
+            held.addAll(cancellations.summaries());
+        }, null, 2, 0, 2);
+        MailPipeline.Result result = pipeline.run(Arrays.asList(
+                email(0, "a@x.com", "12345, P1, 2"),
+                email(1, "b@x.com", "12345, P2, 1"),
+                email(2, "b@x.com", "cancel")).iterator());
+
+        assertEquals(1, stored.size());
+        assertEquals(3, held.size());
+        assertEquals(3, result.getRepliesSent());
+        assertTrue(replies.isEmpty());
+    }
+
+    /**
+     * run more emails than the queues hold with a notifier that throws for one customer
+     * check the run completes and every other reply is still sent
+     */
+    @Test
+    void survivesFailingNotifier() throws SQLException, InterruptedException {
+        MailPipeline pipeline = new MailPipeline(productId -> true, (orders, cancellations, held) -> stored.addAll(orders),
+                (to, body) -> {
+                    if (to.equals("bad@x.com"))
+                        throw new IllegalStateException("mail server rejected the reply");
+                    return replies.add(to);
+                }, 2, 1, 1);
+        List<MailPipeline.Email> inbox = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            inbox.add(email(i, i % 5 == 0 ? "bad@x.com" : "c" + i + "@x.com", "12345, P1, 1"));
+        }
+        MailPipeline.Result result = pipeline.run(inbox.iterator());
+
+        assertEquals(20, stored.size());
+        assertEquals(16, replies.size());
+        assertEquals(16, result.getRepliesSent());
+    }
+}
@@ -1,100 +1,156 @@
 import javax.mail.*;
 import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeBodyPart;
-import javax.mail.internet.MimeMessage;
 import javax.mail.search.FlagTerm;
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Properties;
-import java.util.Queue;
 
 public class MailService {
+    private String storeProtocol = "pop3s";
+    private String storeHost = "pop.gmail.com";
+    private int storePort = 995;
+    private String smtpHost = "smtp.gmail.com";
+    private int smtpPort = 465;
+    private boolean smtpSsl = true;
+    private int smtpConnections = 2;
+    private SmtpSender sender;
+    private boolean useOutbox;
+    private double outboxRate;
+    private NotificationOutbox outbox;
+
+    /**
+     * sets the mailbox orders are read from, e.g. a local POP3 server for testing.
+     *
+     * @param protocol - store protocol, "pop3s" or "pop3"
+     * @param host     - mail server host
+     * @param port     - mail server port
+     */
+
+    public void setStore(String protocol, String host, int port) {
+        this.storeProtocol = protocol;
+        this.storeHost = host;
+        this.storePort = port;
+    }
+
+    /**
+     * sets the SMTP server replies are sent through, e.g. a local SMTP server for testing.
+     *
+     * @param host - SMTP host
+     * @param port - SMTP port
+     * @param ssl  - boolean value if the connection uses SSL
+     */
+
+    public void setSmtp(String host, int port, boolean ssl) {
+        close();
+        synchronized (this) {
+            this.smtpHost = host;
+            this.smtpPort = port;
+            this.smtpSsl = ssl;
+        }
+    }
+
+    /**
+     * @param connections - SMTP connections kept open for sending replies
+     */
+
+    public void setSmtpConnections(int connections) {
+        close();
+        synchronized (this) {
+            this.smtpConnections = Math.max(1, connections);
+        }
+    }
 
     /**
      * @param credentials  - String array of credentials
      * @param emailAddress - string representation of email address
      * @param emailBody    - string representation of email body
-     * @return boolean value if the Gmail was able to connect to the smtp server using the proper email and password
-     * Note - password uses authentication for the username
+     * @return boolean value if the email was queued on the SMTP sender
+     * Note - the email goes out over one of the sender's open connections, see flushEmails()
      */
 
     private boolean sendEmail(Credentials credentials, String emailAddress, String emailBody) {
+        return getSender(credentials).send(emailAddress, "Your Order", emailBody);
+    }
 
-        String from = credentials.getEmail();
-        String host = "smtp.gmail.com";
-        Properties properties = System.getProperties();
-
-        properties.put("mail.smtp.host", host);
-        properties.put("mail.smtp.port", "465");
-        properties.put("mail.smtp.ssl.enable", "true");
-        properties.put("mail.smtp.auth", "true");
-
-        Session session = Session.getInstance(properties, new javax.mail.Authenticator() {
+    private synchronized SmtpSender getSender(Credentials credentials) {
+        if (sender == null)
+            sender = new SmtpSender(credentials, smtpHost, smtpPort, smtpSsl, smtpConnections, 64 * smtpConnections);
+        return sender;
+    }
 
-            protected PasswordAuthentication getPasswordAuthentication() {
+    /**
+     * records replies in the notification_outbox table together with the orders instead of sending them
+     * while the inbox is read. A background dispatcher delivers them with retries.
+     *
+     * @param enabled        - boolean value if replies go through the outbox
+     * @param sendsPerSecond - most replies the dispatcher sends per second, 0 for no limit
+     */
 
-                return new PasswordAuthentication(credentials.getEmail(), credentials.getEmailPassword());
-            }
-        });
+    public synchronized void setOutbox(boolean enabled, double sendsPerSecond) {
+        this.useOutbox = enabled;
+        this.outboxRate = sendsPerSecond;
+        if (outbox != null)
+            outbox.setRateLimit(sendsPerSecond);
+    }
 
-        try {
-            MimeMessage message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(from));
-            message.addRecipient(Message.RecipientType.TO, new InternetAddress(emailAddress));
-            message.setSubject("Your Order");
-            message.setText(emailBody);
-            Transport.send(message);
-        } catch (MessagingException mex) {
-            mex.printStackTrace();
-            return false;
+    private synchronized NotificationOutbox getOutbox(Credentials credentials, QueryMaker qm) throws SQLException {
+        if (outbox == null) {
+            // the dispatcher keeps this sender; going through getSender() would make it wait on this monitor while close() runs
+            SmtpSender outboxSender = getSender(credentials);
+            outbox = new NotificationOutbox(qm.getConnectionPool(),
+                    (to, body) -> outboxSender.submit(to, "Your Order", body));
+            outbox.setRateLimit(outboxRate);
+            outbox.start(1000);
         }
-        return true;
+        return outbox;
     }
 
     /**
-     * Performs a validation of the email address used with the following arguments:
-     *
-     * @param location         - location must be integer type and length of exactly 5
-     * @param messageProductID - product Id of type string validating if it exists in the database
-     * @param messageQuantity  - product quantity of type integer, makes sure > 0 and integer type
-     * @param qm               - creates a new query
-     * @return boolean value
-     * Note - all previously mentioned arguments must be valid for email to return true
-     * @throws SQLException
+     * waits for every queued email to be sent and prints the sender's statistics.
      */
 
-    private boolean validateEmail(String location, Queue<String> messageProductID, Queue<String> messageQuantity, QueryMaker qm) throws SQLException {
-
+    public void flushEmails() {
+        SmtpSender current;
+        synchronized (this) {
+            current = sender;
+        }
+        if (current == null)
+            return;
         try {
-            Integer.parseInt(location);
-        } catch (NumberFormatException e) {
-            return false;
-        } catch (NullPointerException e) {
-            return false;
+            current.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        if (location.length() != 5)
-            return false;
+        System.out.println("Emails sent: " + current.getSentCount() + ", failed: " + current.getFailedCount()
+                + ", reconnects: " + current.getReconnectCount() + ", queued: " + current.getQueueDepth()
+                + ", avg send: " + String.format("%.1f", current.getAverageSendMillis()) + " ms"
+                + ", max send: " + String.format("%.1f", current.getMaxSendMillis()) + " ms");
+    }
 
-        while (messageProductID.peek() != null) {
-            String productID = messageProductID.poll();
-            if (!(qm.valueExists("product_id", "dim_product", productID)))
-                return false;
-        }
+    /**
+     * sends the queued emails and closes the SMTP connections.
+     * The outbox and sender are closed outside the lock, as closing the outbox waits for its current batch.
+     */
 
-        while (messageQuantity.peek() != null) {
-            String quantity = messageQuantity.poll();
-            try {
-                Integer.parseInt(quantity);
-            } catch (NumberFormatException e) {
-                return false;
-            } catch (NullPointerException e) {
-                return false;
-            }
-            if (Integer.parseInt(quantity) <= 0)
-                return false;
+    public void close() {
+        NotificationOutbox closingOutbox;
+        SmtpSender closingSender;
+        synchronized (this) {
+            closingOutbox = outbox;
+            closingSender = sender;
+            outbox = null;
+            sender = null;
         }
-        return true;
+        if (closingOutbox != null)
+            closingOutbox.close();
+        if (closingSender != null)
+            closingSender.close();
     }
 
     /**
@@ -105,28 +161,36 @@ public class MailService {
      * Regardless of the amount of orders place, product Id and quantity are stored in seperate lists
      * If the message content is empty return message
      * Check if the order email is a cancellation email and handle cancellation process
-     * Cancellation process will send email to customer and cancel order for further processing
+     * Cancellation process cancels the customer's orders from this inbox and the ones still waiting to be processed,
+     * then sends each cancelling customer one email listing the canceled products
      * Otherwise send a confirmation email to customer stating order received and is being processed
      * send the valid orders to be processed to our inventory for processing via MySQL after proper formatting
+     * Note - emails are parsed and validated by MailPipeline, one at a time
      *
      * @param credentials - pass along proper credentials
      * @param qm          - create a new query
      */
 
     public void readEmail(Credentials credentials, QueryMaker qm) {
-        String host = "pop.gmail.com";
-        String user = credentials.getEmail();
-        String password = credentials.getEmailPassword();
+        readEmailPipelined(credentials, qm, 1, 1);
+    }
 
-        try {
-            Properties properties = new Properties();
-            properties.put("mail.pop3.host", host);
-            properties.put("mail.pop3.port", "995");
-            properties.put("mail.pop3.starttls.enable", "true");
-            Session emailSession = Session.getDefaultInstance(properties);
+    /**
+     * Pipelined version of readEmail. The inbox is drained through bounded stages:
+     * this thread fetches messages, parse/validate workers check them against the database, the orders
+     * are stored once every cancellation is known, and notifier threads then send the replies.
+     * Drain time grows with the slowest stage instead of the sum of every message's latencies.
+     *
+     * @param credentials - pass along proper credentials
+     * @param qm          - create a new query
+     * @param workers     - threads parsing and validating emails
+     * @param notifiers   - threads sending replies
+     * @return counts of the run, or null if the mailbox could not be read
+     */
 
-            Store store = emailSession.getStore("pop3s");
-            store.connect(host, user, password);
+    public MailPipeline.Result readEmailPipelined(Credentials credentials, QueryMaker qm, int workers, int notifiers) {
+        try {
+            Store store = openStore(credentials);
 
             Folder emailFolder = store.getFolder("INBOX");
             emailFolder.open(Folder.READ_ONLY);
@@ -135,109 +199,127 @@ public class MailService {
             FlagTerm unseenFlagTerm = new FlagTerm(seen, false);
             Message[] messages = emailFolder.search(unseenFlagTerm);
 
-            LinkedList<Transaction> orders = new LinkedList<>();
-            LinkedList<String> canceled_Orders = new LinkedList<>();
-
-            for (int i = 0, n = messages.length; i < n; i++) {
-                Message message = messages[i];
-                message.getFlags();
-                String contentType = message.getContentType();
-                String messageContent = "";
-
-                if (contentType.contains("multipart")) {
-                    Multipart multiPart = (Multipart) message.getContent();
-                    int numberOfParts = multiPart.getCount();
-                    for (int partCount = 0; partCount < numberOfParts; partCount++) {
-                        MimeBodyPart part = (MimeBodyPart) multiPart.getBodyPart(partCount);
-                        messageContent = part.getContent().toString();
-                        break;
-                    }
-                } else if (contentType.contains("text/plain")
-                        || contentType.contains("text/html")) {
-                    Object content1 = message.getContent();
+            if (useOutbox)
+                getOutbox(credentials, qm);
+            MailPipeline pipeline = new MailPipeline(qm::productExists, (orders, cancellations, replies) -> storeOrders(orders, cancellations, replies, qm),
+                    useOutbox ? null : (to, body) -> sendEmail(credentials, to, body), workers, notifiers, 4 * workers);
+            MailPipeline.Result result = pipeline.run(new Iterator<MailPipeline.Email>() {
+                private int i = 0;
 
+                @Override
+                public boolean hasNext() {
+                    return i < messages.length;
                 }
 
-                if (messageContent != null) {
-                    messageContent = messageContent;
-
-                    Queue<String> messageProductID = new LinkedList<>();
-                    Queue<String> messageQuantity = new LinkedList<>();
-                    String[] emailInput = messageContent.split(",");
-
-                    String sender = message.getFrom()[0].toString();
-                    sender = sender.substring(sender.indexOf("<") + 1, sender.indexOf(">"));
-
-                    if (emailInput[0].trim().equalsIgnoreCase("cancel")) {
-                        System.out.println("Cancellation Email");
-                        if (!(canceled_Orders.contains(sender)))
-                            canceled_Orders.add(sender);
-                        continue;
+                @Override
+                public MailPipeline.Email next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    Message message = messages[i];
+                    try {
+                        return new MailPipeline.Email(i++, senderAddress(message),
+                                java.sql.Date.valueOf(message.getSentDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDate()),
+                                messageContent(message));
+                    } catch (MessagingException | IOException e) {
+                        throw new IllegalStateException("Could not fetch email " + i, e);
                     }
+                }
+            });
+            System.out.println("Emails read: " + result);
 
-                    String location = emailInput[0];
-
-                    for (int k = 1; k < emailInput.length; k = k + 2) {
-                        messageProductID.add(emailInput[k].trim());
-                        messageQuantity.add((emailInput[k + 1]).trim());
-                    }
-
-                    if (validateEmail(location, new LinkedList<>(messageProductID), new LinkedList<>(messageQuantity), qm)) {
-
-                        System.out.println("Valid order from email");
+            emailFolder.close(false);
+            store.close();
+            flushEmails();
+            return result;
+        } catch (MessagingException e) {
+            e.printStackTrace();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
-                        String date;
+    private Store openStore(Credentials credentials) throws MessagingException {
+        Properties properties = new Properties();
+        properties.put("mail." + storeProtocol + ".host", storeHost);
+        properties.put("mail." + storeProtocol + ".port", String.valueOf(storePort));
+        properties.put("mail." + storeProtocol + ".starttls.enable", "true");
+        Session emailSession = Session.getInstance(properties);
 
-                        date = (message.getSentDate().getYear() + 1900) + "-" + (message.getSentDate().getMonth() + 1) + "-" + message.getSentDate().getDate();
+        Store store = emailSession.getStore(storeProtocol);
+        store.connect(storeHost, storePort, credentials.getEmail(), credentials.getEmailPassword());
+        return store;
+    }
 
-                        String products = messageProductID.toString();
+    private static String messageContent(Message message) throws MessagingException, IOException {
+        String contentType = message.getContentType();
+        if (contentType.contains("multipart")) {
+            Multipart multiPart = (Multipart) message.getContent();
+            if (multiPart.getCount() > 0)
+                return multiPart.getBodyPart(0).getContent().toString();
+        } else if (contentType.contains("text/plain")
+                || contentType.contains("text/html")) {
+            return message.getContent().toString();
+        }
+        return "";
+    }
 
-                        while (messageProductID.peek() != null) {
-                            orders.add(new Transaction(java.sql.Date.valueOf(date), location, messageProductID.poll(), Integer.parseInt(messageQuantity.poll()), sender));
-                        }
+    private static String senderAddress(Message message) throws MessagingException {
+        Address from = message.getFrom()[0];
+        if (from instanceof InternetAddress)
+            return ((InternetAddress) from).getAddress();
+        String sender = from.toString();
+        return sender.substring(sender.indexOf("<") + 1, sender.indexOf(">"));
+    }
 
-                        sendEmail(credentials, message.getFrom()[0].toString(), "Order received. Your order will be stored to be processed\n" + "Your order included these products:\n" + products);
-                    } else {
-                        System.out.println("Invalid order from email");
-                        sendEmail(credentials, message.getFrom()[0].toString(), "Order not received. One of the inputs is invalid\n" + "The products you attempted to order:\n" + messageProductID);
-                    }
-                }
-            }
+    /**
+     * in one transaction: deletes the stored orders of cancelling customers, stores the new orders in
+     * temp_unprocessed_sales with hashed emails, upserts their new customers into hash_ref and, when the outbox is used, the replies and cancellation summaries in the outbox.
+     *
+     * @param orders        - valid orders that were not cancelled
+     * @param cancellations - customers who sent a cancellation email
+     * @param replies       - replies to deliver through the outbox, empty if they were sent directly
+     * @param qm            - create a new query
+     * @throws SQLException
+     */
 
-            Iterator ordersIter = orders.iterator();
-            while (ordersIter.hasNext()) {
-                Transaction t = (Transaction) ordersIter.next();
-                if (canceled_Orders.contains(t.getCustEmail())) {
-                    System.out.println("Order removed due to cancellation email");
-                    sendEmail(credentials, t.getCustEmail(), "Your order for " + t.getProduct_ID() + " has been canceled");
-                    ordersIter.remove();
+    private void storeOrders(List<Transaction> orders, Cancellations cancellations, List<MailPipeline.Notification> replies, QueryMaker qm) throws SQLException {
+        if (orders.isEmpty() && replies.isEmpty() && cancellations.isEmpty())
+            return;
+        String[] headers = "date,hashed_email,cust_location,product_id,product_quantity".split(",");
+        EmailHasher.Customers hashed = qm.getEmailHasher().customers();
+        int[] types = {QueryMaker.DATE, QueryMaker.BINARY, QueryMaker.STRING, QueryMaker.STRING, QueryMaker.INT};
+        Object[][] objArr = new Object[orders.size()][];
+        int l = 0;
+        for (Transaction t : orders) {
+            objArr[l++] = new Object[]{t.getDate(), hashed.hash(t.getCustEmail()), t.getCustLocation(), t.getProduct_ID(), t.getQuantity()};
+        }
+        try (Connection conn = qm.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                cancellations.cancelStored(conn);
+                try (BulkInserter inserter = qm.bulkInserter(conn, "temp_unprocessed_sales", headers, types)) {
+                    inserter.addRows(objArr, objArr.length);
                 }
-            }
-
-            if (!(orders.isEmpty())) {
-                String[] headers = "date,cust_email,cust_location,product_id,product_quantity".split(",");
-                Object[][] objArr = new Object[orders.size()][5];
-                for (int l = 0; l < orders.size(); l++) {
-                    objArr[l][0] = qm.valueQueryPrep(orders.get(l).getDate());
-                    objArr[l][1] = QueryMaker.valueQueryPrep(orders.get(l).getCustEmail());
-                    objArr[l][2] = orders.get(l).getCustLocation();
-                    objArr[l][3] = QueryMaker.valueQueryPrep(orders.get(l).getProduct_ID());
-                    objArr[l][4] = orders.get(l).getQuantity();
+                qm.upsertHashRef(conn, hashed);
+                if (useOutbox) {
+                    List<MailPipeline.Notification> outgoing = new ArrayList<>(replies);
+                    outgoing.addAll(cancellations.summaries());
+                    NotificationOutbox.enqueue(conn, outgoing);
                 }
-                qm.setTableName("temp_unprocessed_sales");
-                qm.insertRows(headers, objArr);
-                System.out.println("Orders put to 'temp_unprocessed_sales'");
+                conn.commit();
+                hashed.committed();
+            } catch (SQLException e) {
+                // the customers of this transaction were not marked committed, so the next one writes them again
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
-
-            emailFolder.close(false);
-            store.close();
-
-        } catch (NoSuchProviderException e) {
-            e.printStackTrace();
-        } catch (MessagingException e) {
-            e.printStackTrace();
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        if (!orders.isEmpty())
+            System.out.println("Orders put to 'temp_unprocessed_sales'");
+        if (useOutbox)
+            System.out.println((replies.size() + cancellations.summaries().size()) + " replies put to 'notification_outbox'");
     }
 }
@@ -22,6 +22,11 @@ public class Main {
     private final String analytics_start = "2020-01-01";
     private final String analytics_end = "2020-06-28";
     private final int resupply_quantity = 500;
+    private final boolean use_local_infile = true; //falls back to batch inserts if the server disallows it.
+    private final int processing_threads = Runtime.getRuntime().availableProcessors();
+    private final double product_filter_fpp = 0.01; //Bloom filter false-positive rate for email product checks, 0 = off.
+    private final int mail_threads = 8; //parse/validate workers and reply senders used when reading the inbox.
+    private final double mail_send_rate = 5; //replies per second sent from the notification outbox, 0 = no limit.
 
 
     public Main() {
@@ -41,6 +46,9 @@ public class Main {
         //Database re-creation as well as batch (.csv) file loading and processing
         System.out.println("The Credentials and QueryMaker objects have been created.");
 
+        qm.setUseLocalInfile(use_local_infile);
+        qm.setProcessingThreads(processing_threads);
+        qm.setProductFilter(product_filter_fpp);
         qm.createDatabaseStructure(inventory_file);
         System.out.println("The basic database structure has been created and inventory has been loaded.");
         dbCreation = LocalTime.now();
@@ -61,10 +69,12 @@ public class Main {
       
         //MailService Demonstration
         qm.createTable("temp_unprocessed_sales",
-        "date DATE ,cust_email VARCHAR(320) ,cust_location VARCHAR(5) ,product_id VARCHAR(12) ,product_quantity INT");
+        "date DATE ,hashed_email BINARY(16) ,cust_location VARCHAR(5) ,product_id VARCHAR(12) ,product_quantity INT");
 //        MailService mail = new MailService();
+//        mail.setOutbox(true, mail_send_rate);
 //        System.out.println("\nReading emails");
-//        mail.readEmail(credentials, qm);
+//        mail.readEmailPipelined(credentials, qm, mail_threads, mail_threads);
+//        mail.close();
 //        System.out.println("Emails read");
 //        qm.processEmails();
 //        qm.batchProcessing(resupply_quantity, 2);
@@ -0,0 +1,341 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NotificationOutbox implements AutoCloseable {
+    public static final String PENDING = "PENDING";
+    public static final String SENT = "SENT";
+    public static final String FAILED = "FAILED";
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long CLOSE_TIMEOUT_MILLIS = 60000;
+    private final ConnectionPool pool;
+    private final Delivery delivery;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // guards dispatcher; dispatch() holds the outbox monitor for a whole batch, so close() must not need it
+    private final Object lifecycle = new Object();
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long retryDelaySeconds = 30;
+    private volatile long sendIntervalNanos;
+    private volatile boolean stopping;
+    private long nextSendNanos;
+    private ScheduledExecutorService dispatcher;
+
+    /**
+     * Customer notifications written to the notification_outbox table in the same transaction as the
+     * orders they are about, and delivered later by a background dispatcher. Ingestion never waits for
+     * the mail server, and a notification that could not be sent stays in the table to be retried
+     * with a growing delay instead of being lost.
+     * Delivery is at least once: a notification whose send succeeded but whose SENT mark was not written
+     * (e.g. the program stopped in between) is sent again. Run one dispatcher per database.
+     *
+     * @param pool     - connection pool of the database holding the outbox
+     * @param delivery - sends one notification
+     * @throws SQLException
+     */
+
+    public NotificationOutbox(ConnectionPool pool, Delivery delivery) throws SQLException {
+        this.pool = pool;
+        this.delivery = delivery;
+        try (Connection conn = pool.getConnection()) {
+            createTable(conn);
+        }
+    }
+
+    /**
+     * creates the notification_outbox table if it does not exist yet.
+     *
+     * @param connection - open connection
+     * @throws SQLException
+     */
+
+    public static void createTable(Connection connection) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS notification_outbox (" +
+                    "outbox_id BIGINT AUTO_INCREMENT, recipient VARCHAR(320), body TEXT, status VARCHAR(10), " +
+                    "attempts INT, created DATETIME, next_attempt DATETIME, sent_at DATETIME, last_error VARCHAR(255), " +
+                    "CONSTRAINT no_pk PRIMARY KEY (outbox_id), INDEX no_status_next_index (status, next_attempt))");
+        }
+    }
+
+    /**
+     * records notifications for delivery. Call inside the transaction that stores the orders,
+     * so the notifications exist exactly when the orders do.
+     *
+     * @param connection    - connection of the running transaction
+     * @param notifications - notifications to record
+     * @throws SQLException
+     */
+
+    public static void enqueue(Connection connection, List<MailPipeline.Notification> notifications) throws SQLException {
+        if (notifications.isEmpty())
+            return;
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO notification_outbox (recipient, body, status, attempts, created, next_attempt) " +
+                        "VALUES (?, ?, ?, 0, NOW(), NOW())")) {
+            for (MailPipeline.Notification notification : notifications) {
+                ps.setString(1, notification.getTo());
+                ps.setString(2, notification.getBody());
+                ps.setString(3, PENDING);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * starts delivering due notifications in the background.
+     *
+     * @param pollMillis - pause between two passes over the outbox once it is drained
+     */
+
+    public void start(long pollMillis) {
+        synchronized (lifecycle) {
+            if (dispatcher != null)
+                return;
+            stopping = false;
+            dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "notification-outbox-dispatcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dispatcher.scheduleWithFixedDelay(() -> {
+                try {
+                    while (!stopping && dispatch() == batchSize) {
+                        // a full batch means more notifications are due
+                    }
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, 0, pollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * delivers one batch of due notifications, oldest first, at no more than the configured rate.
+     * Sent notifications are marked SENT; failed ones are retried after retryDelay * 2^(attempts - 1)
+     * seconds until maxAttempts, then marked FAILED.
+     * No pooled connection is held while the batch is delivered: one is borrowed to read the batch
+     * and another to record the results.
+     *
+     * @return number of notifications attempted
+     * @throws SQLException
+     * @throws InterruptedException
+     */
+
+    public synchronized int dispatch() throws SQLException, InterruptedException {
+        List<Long> ids = new ArrayList<>();
+        List<Integer> attempts = new ArrayList<>();
+        List<String> recipients = new ArrayList<>();
+        List<String> bodies = new ArrayList<>();
+        List<CompletionStage<Boolean>> results = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT outbox_id, recipient, body, attempts FROM notification_outbox " +
+                            "WHERE status = ? AND next_attempt <= NOW() ORDER BY outbox_id LIMIT ?",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setString(1, PENDING);
+                ps.setInt(2, batchSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getLong(1));
+                        recipients.add(rs.getString(2));
+                        bodies.add(rs.getString(3));
+                        attempts.add(rs.getInt(4) + 1);
+                    }
+                }
+            }
+        }
+        if (ids.isEmpty())
+            return 0;
+        for (int i = 0; i < ids.size(); i++) {
+            throttle();
+            results.add(deliver(recipients.get(i), bodies.get(i)));
+        }
+        for (CompletionStage<Boolean> result : results) {
+            try {
+                errors.add(result.toCompletableFuture().get() ? null : "not accepted for sending");
+            } catch (ExecutionException e) {
+                errors.add(String.valueOf(e.getCause()));
+            }
+        }
+
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement done = conn.prepareStatement(
+                    "UPDATE notification_outbox SET status = ?, attempts = ?, sent_at = NOW(), last_error = NULL WHERE outbox_id = ?");
+                 PreparedStatement retry = conn.prepareStatement(
+                         "UPDATE notification_outbox SET status = ?, attempts = ?, last_error = ?, " +
+                                 "next_attempt = DATE_ADD(NOW(), INTERVAL ? SECOND) WHERE outbox_id = ?")) {
+                for (int i = 0; i < ids.size(); i++) {
+                    String error = errors.get(i);
+                    int attempt = attempts.get(i);
+                    if (error == null) {
+                        sent.incrementAndGet();
+                        done.setString(1, SENT);
+                        done.setInt(2, attempt);
+                        done.setLong(3, ids.get(i));
+                        done.addBatch();
+                    } else {
+                        boolean giveUp = attempt >= maxAttempts;
+                        (giveUp ? failed : retried).incrementAndGet();
+                        retry.setString(1, giveUp ? FAILED : PENDING);
+                        retry.setInt(2, attempt);
+                        retry.setString(3, error.length() > 255 ? error.substring(0, 255) : error);
+                        retry.setLong(4, retryDelaySeconds << Math.min(attempt - 1, 20));
+                        retry.setLong(5, ids.get(i));
+                        retry.addBatch();
+                    }
+                }
+                done.executeBatch();
+                retry.executeBatch();
+            }
+        }
+        return ids.size();
+    }
+
+    private CompletionStage<Boolean> deliver(String to, String body) {
+        try {
+            return delivery.deliver(to, body);
+        } catch (RuntimeException e) {
+            CompletableFuture<Boolean> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
+    private void throttle() throws InterruptedException {
+        long interval = sendIntervalNanos;
+        if (interval == 0)
+            return;
+        long now = System.nanoTime();
+        if (nextSendNanos - now > 0)
+            TimeUnit.NANOSECONDS.sleep(nextSendNanos - now);
+        nextSendNanos = Math.max(now, nextSendNanos) + interval;
+    }
+
+    /**
+     * stops the background dispatcher. The batch being delivered is finished and its results recorded
+     * first, so notifications already handed to the mail server are not sent again on the next start.
+     * Notifications not sent yet stay in the outbox. Only if the batch takes longer than
+     * CLOSE_TIMEOUT_MILLIS is the dispatcher interrupted.
+     */
+
+    @Override
+    public void close() {
+        ScheduledExecutorService executor;
+        synchronized (lifecycle) {
+            executor = dispatcher;
+            dispatcher = null;
+        }
+        if (executor == null)
+            return;
+        // not interrupted: the running pass ends after its current batch and no new pass is scheduled
+        stopping = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                System.out.println("Notification outbox batch did not finish in " + CLOSE_TIMEOUT_MILLIS + " ms, stopping it");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param perSecond - most notifications handed to the mail server per second, 0 for no limit
+     */
+
+    public void setRateLimit(double perSecond) {
+        this.sendIntervalNanos = perSecond > 0 ? (long) (1e9 / perSecond) : 0;
+    }
+
+    /**
+     * @param maxAttempts - sends tried before a notification is marked FAILED
+     */
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * @param retryDelaySeconds - delay before the first retry, doubled for every later one
+     */
+
+    public void setRetryDelay(long retryDelaySeconds) {
+        this.retryDelaySeconds = Math.max(1, retryDelaySeconds);
+    }
+
+    /**
+     * @param batchSize - notifications read from the outbox per pass
+     */
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return number of notifications waiting in the outbox
+     * @throws SQLException
+     */
+
+    public int getPendingCount() throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM notification_outbox WHERE status = ?")) {
+            ps.setString(1, PENDING);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * @return number of notifications sent by this outbox
+     */
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return number of failed sends that were scheduled for a retry
+     */
+
+    public long getRetryCount() {
+        return retried.get();
+    }
+
+    /**
+     * @return number of notifications marked FAILED after maxAttempts
+     */
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * sends one notification.
+     */
+
+    public interface Delivery {
+        CompletionStage<Boolean> deliver(String to, String body);
+    }
+}
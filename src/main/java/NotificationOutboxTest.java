@@ -0,0 +1,260 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationOutboxTest {
+
+    // notification_outbox rows by outbox_id: recipient, body, status, attempts, next_attempt (seconds on the fake clock)
+    private final Map<Long, Object[]> rows = new TreeMap<>();
+    private long now;
+    private final ConnectionPool pool = new ConnectionPool(this::open, 4);
+    private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> activeWhileDelivering = Collections.synchronizedList(new ArrayList<>());
+
+    // a connection that runs the outbox statements against the rows above
+    private Connection open() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isValid":
+                            return true;
+                        case "isClosed":
+                            return false;
+                        case "getAutoCommit":
+                            return true;
+                        case "createStatement":
+                            return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{Statement.class},
+                                    (st, m, a) -> m.getName().equals("executeUpdate") ? 0 : m.getName().equals("isClosed") ? false : null);
+                        case "prepareStatement":
+                            return prepare((String) args[0]);
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private PreparedStatement prepare(String sql) {
+        Map<Integer, Object> params = new TreeMap<>();
+        List<Object[]> batch = new ArrayList<>();
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (ps, m, a) -> {
+                    switch (m.getName()) {
+                        case "setString":
+                        case "setInt":
+                        case "setLong":
+                            params.put((Integer) a[0], a[1]);
+                            return null;
+                        case "addBatch":
+                            batch.add(params.values().toArray());
+                            return null;
+                        case "executeBatch":
+                            synchronized (rows) {
+                                for (Object[] p : batch) {
+                                    apply(sql, p);
+                                }
+                            }
+                            batch.clear();
+                            return new int[0];
+                        case "executeQuery":
+                            return query(sql, params.values().toArray());
+                        case "isClosed":
+                            return false;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private void apply(String sql, Object[] p) {
+        if (sql.startsWith("INSERT")) {
+            rows.put((long) rows.size() + 1, new Object[]{p[0], p[1], p[2], 0, now});
+        } else if (sql.contains("sent_at")) {
+            Object[] row = rows.get((Long) p[2]);
+            row[2] = p[0];
+            row[3] = p[1];
+        } else {
+            Object[] row = rows.get((Long) p[4]);
+            row[2] = p[0];
+            row[3] = p[1];
+            row[4] = now + (Long) p[3];
+        }
+    }
+
+    private ResultSet query(String sql, Object[] p) {
+        List<Object[]> result = new ArrayList<>();
+        synchronized (rows) {
+            if (sql.startsWith("SELECT COUNT(*)")) {
+                long count = rows.values().stream().filter(row -> row[2].equals(p[0])).count();
+                result.add(new Object[]{(int) count});
+            } else {
+                for (Map.Entry<Long, Object[]> row : rows.entrySet()) {
+                    if (result.size() < (Integer) p[1] && row.getValue()[2].equals(p[0]) && (Long) row.getValue()[4] <= now)
+                        result.add(new Object[]{row.getKey(), row.getValue()[0], row.getValue()[1], row.getValue()[3]});
+                }
+            }
+        }
+        int[] at = {-1};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (rs, m, a) -> {
+                    switch (m.getName()) {
+                        case "next":
+                            return ++at[0] < result.size();
+                        case "getLong":
+                            return ((Number) result.get(at[0])[(Integer) a[0] - 1]).longValue();
+                        case "getInt":
+                            return ((Number) result.get(at[0])[(Integer) a[0] - 1]).intValue();
+                        case "getString":
+                            return (String) result.get(at[0])[(Integer) a[0] - 1];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private void enqueue(String... recipients) throws SQLException {
+        List<MailPipeline.Notification> notifications = new ArrayList<>();
+        for (String to : recipients) {
+            notifications.add(new MailPipeline.Notification(to, "Your order"));
+        }
+        try (Connection conn = pool.getConnection()) {
+            NotificationOutbox.enqueue(conn, notifications);
+        }
+    }
+
+    private Object status(long id) {
+        return rows.get(id)[2];
+    }
+
+    /**
+     * enqueue three notifications and dispatch them
+     * check they are delivered in order, marked SENT, and no connection is borrowed during delivery
+     */
+    @Test
+    void marksDeliveredSent() throws Exception {
+        NotificationOutbox outbox = new NotificationOutbox(pool, (to, body) -> {
+            activeWhileDelivering.add(pool.getActiveCount());
+            delivered.add(to);
+            return CompletableFuture.completedFuture(true);
+        });
+        enqueue("a@x.com", "b@x.com", "c@x.com");
+
+        assertEquals(3, outbox.dispatch());
+        assertEquals(Arrays.asList("a@x.com", "b@x.com", "c@x.com"), delivered);
+        assertEquals(Arrays.asList(0, 0, 0), activeWhileDelivering);
+        assertEquals(NotificationOutbox.SENT, status(1));
+        assertEquals(3, outbox.getSentCount());
+        assertEquals(0, outbox.getPendingCount());
+        assertEquals(0, outbox.dispatch());
+    }
+
+    /**
+     * fail one recipient on every attempt, another by throwing once
+     * check retries wait retryDelay * 2^(attempts - 1) seconds and the notification is FAILED after maxAttempts
+     */
+    @Test
+    void retriesWithBackoffThenFails() throws Exception {
+        boolean[] thrown = new boolean[1];
+        NotificationOutbox outbox = new NotificationOutbox(pool, (to, body) -> {
+            delivered.add(to);
+            if (to.equals("flaky@x.com") && !thrown[0]) {
+                thrown[0] = true;
+                throw new IllegalStateException("connection reset");
+            }
+            return CompletableFuture.completedFuture(!to.equals("bad@x.com"));
+        });
+        outbox.setMaxAttempts(3);
+        outbox.setRetryDelay(10);
+        enqueue("bad@x.com", "flaky@x.com");
+
+        assertEquals(2, outbox.dispatch());
+        assertEquals(2, outbox.getRetryCount());
+        assertEquals(NotificationOutbox.PENDING, status(1));
+        assertEquals(10L, rows.get(1L)[4]);
+        assertEquals(0, outbox.dispatch());
+
+        now = 10;
+        assertEquals(2, outbox.dispatch());
+        assertEquals(NotificationOutbox.SENT, status(2));
+        assertEquals(30L, rows.get(1L)[4]);
+        now = 29;
+        assertEquals(0, outbox.dispatch());
+
+        now = 30;
+        assertEquals(1, outbox.dispatch());
+        assertEquals(NotificationOutbox.FAILED, status(1));
+        assertEquals(3, rows.get(1L)[3]);
+        assertEquals(1, outbox.getFailedCount());
+        assertEquals(1, outbox.getSentCount());
+        now = 1000;
+        assertEquals(0, outbox.dispatch());
+        assertEquals(Arrays.asList("bad@x.com", "flaky@x.com", "bad@x.com", "flaky@x.com", "bad@x.com"), delivered);
+    }
+
+    /**
+     * dispatch six notifications limited to 50 per second
+     * check the sends are spread over at least five intervals
+     */
+    @Test
+    void limitsRate() throws Exception {
+        NotificationOutbox outbox = new NotificationOutbox(pool, (to, body) -> CompletableFuture.completedFuture(true));
+        outbox.setRateLimit(50);
+        enqueue("a@x.com", "b@x.com", "c@x.com", "d@x.com", "e@x.com", "f@x.com");
+
+        long start = System.nanoTime();
+        assertEquals(6, outbox.dispatch());
+        assertTrue(System.nanoTime() - start >= 5 * 20000000L - 1000000L);
+    }
+
+    /**
+     * close the outbox while the dispatcher is delivering the first of two batches
+     * check the batch is finished and recorded, and the second batch is left in the outbox
+     */
+    @Test
+    void closeFinishesCurrentBatch() throws Exception {
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NotificationOutbox outbox = new NotificationOutbox(pool, (to, body) -> {
+            delivering.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delivered.add(to);
+            return CompletableFuture.completedFuture(true);
+        });
+        outbox.setBatchSize(2);
+        enqueue("a@x.com", "b@x.com", "c@x.com", "d@x.com");
+
+        outbox.start(10);
+        delivering.await();
+        Thread closer = new Thread(outbox::close);
+        closer.start();
+        // close() is waiting for the batch once it sits in awaitTermination
+        while (closer.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        closer.join();
+
+        assertEquals(Arrays.asList("a@x.com", "b@x.com"), delivered);
+        assertEquals(NotificationOutbox.SENT, status(2));
+        assertEquals(NotificationOutbox.PENDING, status(3));
+        assertEquals(2, outbox.getPendingCount());
+    }
+}
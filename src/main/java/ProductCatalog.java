@@ -0,0 +1,149 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class ProductCatalog {
+    private static final float LOAD_FACTOR = 0.6f;
+    private String[] productIds;
+    private int[] hashes;
+    private int[] productTids;
+    private int[] supplierTids;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    /**
+     * Open addressing map from product_id to product_tid and supplier_tid (linear probing).
+     * Keys and values sit in parallel arrays, with the key hashes kept alongside so a probe only
+     * compares strings whose hash matches.
+     *
+     * @param expectedSize - number of products expected, the catalog grows past it if needed
+     */
+
+    public ProductCatalog(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1);
+    }
+
+    /**
+     * reads every product of dim_product into a new catalog.
+     *
+     * @param connection - open connection
+     * @return catalog of the products in dim_product at the time of the call
+     * @throws SQLException
+     */
+
+    public static ProductCatalog load(Connection connection) throws SQLException {
+        try (Statement st = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             ResultSet rs = st.executeQuery("SELECT product_id, product_tid, supplier_tid FROM dim_product")) {
+            ProductCatalog catalog = new ProductCatalog(32 * 1024);
+            while (rs.next()) {
+                catalog.put(rs.getString(1), rs.getInt(2), rs.getInt(3));
+            }
+            return catalog;
+        }
+    }
+
+    /**
+     * @param productId - product_id to look up
+     * @return boolean value if the product is in the catalog
+     */
+
+    public boolean contains(String productId) {
+        return find(productId) >= 0;
+    }
+
+    /**
+     * @param productId - product_id to look up
+     * @return product_tid of the product, or -1 if it is not in the catalog
+     */
+
+    public int getProductTid(String productId) {
+        int slot = find(productId);
+        return slot < 0 ? -1 : productTids[slot];
+    }
+
+    /**
+     * @param productId - product_id to look up
+     * @return supplier_tid of the product, or -1 if it is not in the catalog
+     */
+
+    public int getSupplierTid(String productId) {
+        int slot = find(productId);
+        return slot < 0 ? -1 : supplierTids[slot];
+    }
+
+    /**
+     * stores a product, replacing any previous entry for the product_id.
+     *
+     * @param productId   - product_id
+     * @param productTid  - product_tid
+     * @param supplierTid - supplier_tid
+     */
+
+    public void put(String productId, int productTid, int supplierTid) {
+        int hash = productId.hashCode();
+        int slot = slot(hash);
+        while (productIds[slot] != null) {
+            if (hashes[slot] == hash && productIds[slot].equals(productId)) {
+                productTids[slot] = productTid;
+                supplierTids[slot] = supplierTid;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        productIds[slot] = productId;
+        hashes[slot] = hash;
+        productTids[slot] = productTid;
+        supplierTids[slot] = supplierTid;
+        if (++size >= threshold)
+            rehash(productIds.length << 1);
+    }
+
+    /**
+     * @return number of products in the catalog
+     */
+
+    public int size() {
+        return size;
+    }
+
+    private int find(String productId) {
+        if (productId == null)
+            return -1;
+        int hash = productId.hashCode();
+        int slot = slot(hash);
+        while (productIds[slot] != null) {
+            if (hashes[slot] == hash && productIds[slot].equals(productId))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        productIds = new String[capacity];
+        hashes = new int[capacity];
+        productTids = new int[capacity];
+        supplierTids = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        String[] oldIds = productIds;
+        int[] oldTids = productTids;
+        int[] oldSuppliers = supplierTids;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != null)
+                put(oldIds[i], oldTids[i], oldSuppliers[i]);
+        }
+    }
+}
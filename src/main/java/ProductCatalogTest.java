@@ -0,0 +1,42 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductCatalogTest {
+
+    /**
+     * add products past the expected size
+     * check every product is found with its tids and unknown ids are not
+     */
+    @Test
+    void putAndLookUp() {
+        ProductCatalog catalog = new ProductCatalog(4);
+        for (int i = 1; i <= 1000; i++) {
+            catalog.put("P" + Integer.toString(i * 7919, 36).toUpperCase(), i, i % 13);
+        }
+        assertEquals(1000, catalog.size());
+        for (int i = 1; i <= 1000; i++) {
+            String productId = "P" + Integer.toString(i * 7919, 36).toUpperCase();
+            assertTrue(catalog.contains(productId));
+            assertEquals(i, catalog.getProductTid(productId));
+            assertEquals(i % 13, catalog.getSupplierTid(productId));
+        }
+        assertFalse(catalog.contains("2BTACVJEM9CB"));
+        assertFalse(catalog.contains(null));
+        assertEquals(-1, catalog.getProductTid("2BTACVJEM9CB"));
+    }
+
+    /**
+     * store a product twice
+     * check the second entry replaces the first
+     */
+    @Test
+    void replaceProduct() {
+        ProductCatalog catalog = new ProductCatalog(16);
+        catalog.put("2BTACVJEM9CB", 1, 2);
+        catalog.put("2BTACVJEM9CB", 3, 4);
+        assertEquals(1, catalog.size());
+        assertEquals(3, catalog.getProductTid("2BTACVJEM9CB"));
+        assertEquals(4, catalog.getSupplierTid("2BTACVJEM9CB"));
+    }
+}
@@ -1,5 +1,6 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.sql.*;
 import java.text.DateFormat;
 import java.text.NumberFormat;
@@ -10,19 +11,42 @@ import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
 import static java.time.temporal.ChronoUnit.DAYS;
 
 
 public class QueryMaker {
+    public static int BINARY = 5;
+    public static int DATETIME = 4;
     public static int DATE = 3;
     public static int DOUBLE = 2;
     public static int INT = 1;
     public static int STRING = 0;
-    public static Statement statement;
-    private static Connection connection;
-    private PreparedStatement preparedStatement;
-    private String tableName;
+    public static int DEFAULT_POOL_SIZE = 10;
+    public static int CURSOR_FETCH_SIZE = 1000;
+    private static RowSetFactory rowSetFactory;
+    private final ConnectionPool pool;
+    private final ConnectionPool.ConnectionFactory localInfileConnections;
+    private volatile String tableName;
+    private volatile long maxAllowedPacket;
+    private volatile boolean useLocalInfile;
+    private volatile int processingThreads = 1;
+    private volatile int processingChunkSize = 100000;
+    private volatile boolean javaAnalytics;
+    private volatile Connection analyticsConnection;
+    private volatile int streamingFetchSize = Integer.MIN_VALUE;
+    private volatile ProductCatalog productCatalog;
+    private volatile double productFilterFpp;
+    private volatile BloomFilter productFilter;
+    private final EmailHasher emailHasher = new EmailHasher();
+    private final TopNReportEngine reports = new TopNReportEngine(this);
 
 
     /**
@@ -38,12 +62,77 @@ public class QueryMaker {
      */
 
     public QueryMaker(String userName, String password, String ipAddress, String portNumber, String databaseName) throws ClassNotFoundException, SQLException {
+        this(userName, password, ipAddress, portNumber, databaseName, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Creates QueryMaker object backed by a pool of up to poolSize connections.
+     * Every method borrows a connection for the duration of the call, so one QueryMaker
+     * can be shared by the GUI, charts, batch processing and mail ingestion at the same time.
+     *
+     * @param userName     MySQL userName
+     * @param password     MySQL password
+     * @param ipAddress    MySQL IP Address
+     * @param portNumber   SQL portNumber
+     * @param databaseName MySQL database name
+     * @param poolSize     maximum number of open connections
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     */
+
+    public QueryMaker(String userName, String password, String ipAddress, String portNumber, String databaseName, int poolSize) throws ClassNotFoundException, SQLException {
 
         Class.forName("com.mysql.cj.jdbc.Driver");
-        String getURL = "jdbc:mysql://" + ipAddress + ":" + portNumber + "/" + databaseName;
-        connection = DriverManager.getConnection(getURL, userName, password);
-        statement = connection.createStatement();
+        String getURL = "jdbc:mysql://" + ipAddress + ":" + portNumber + "/" + databaseName
+                + "?rewriteBatchedStatements=true&useServerPrepStmts=true&cachePrepStmts=true&useCursorFetch=true";
+        pool = new ConnectionPool(getURL, userName, password, poolSize);
+        // only the connections opened for LOAD DATA LOCAL INFILE let the server ask for local files
+        localInfileConnections = () -> DriverManager.getConnection(getURL + "&allowLoadLocalInfile=true", userName, password);
         //System.out.println("Connection Succesful");
+        this.verifySchema();
+    }
+
+    /**
+     * borrows a connection from the pool. Closing it gives it back.
+     *
+     * @return pooled connection, use with try-with-resources
+     * @throws SQLException
+     */
+
+    public Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    /**
+     * @return the connection pool, for sizing, timeouts and leak detection settings
+     */
+
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+     * @return hasher of customer emails, shared by every ingestion path so each customer reaches hash_ref once
+     */
+
+    public EmailHasher getEmailHasher() {
+        return emailHasher;
+    }
+
+    /**
+     * @return top-N report engine, its cache is invalidated by batchProcessing() for the days it commits
+     */
+
+    public TopNReportEngine getReportEngine() {
+        return reports;
+    }
+
+    /**
+     * closes every pooled connection.
+     */
+
+    public void close() {
+        pool.close();
     }
 
     /**
@@ -60,234 +149,392 @@ public class QueryMaker {
 
     /**
      * transfers unprocessed customer_orders csv file into the unprocessed_sales SQL table
-     * add an additional column to unprocessed_sales table for hashing emails
-     * load and hash customer emails in hash_ref table from unprocessed_sales table
-     * add newly hashed emails into the unprocessed_sales table from hash_ref.
-     * DELETE un-hashed emails column from unprocessed_sales
-     * We now have a SQL table with unprocessed sales and hashed customer emails
+     * customer emails are hashed in Java while the file is streamed (see loadOrders())
+     * and new customers are upserted into hash_ref, so the load path runs no DDL
+     * add new customers and locations to dim_customer and dim_location
+     * We now have a SQL table with unprocessed sales keyed by int customer and location ids
      *
      * @throws SQLException
-     * @throws FileNotFoundException
+     * @throws IOException
      * @throws ClassNotFoundException
      */
 
-    public void batchLoading(String customer_orders_file, String dim_date_start, String dim_date_end) throws SQLException, FileNotFoundException, ClassNotFoundException {
-        // Step 1: Load SQL unprocessed_sales table with Java 2-D Array using .csv file for data source.
-        Object[][] objArr = this.csvToArray(customer_orders_file, new int[]{DATE, STRING, STRING, STRING, INT});
-        this.setTableName("temp_unprocessed_sales");
-        this.insertRows(new String[]{"date", "cust_email", "cust_location", "product_id", "product_quantity"}, objArr);
+    public void batchLoading(String customer_orders_file, String dim_date_start, String dim_date_end) throws SQLException, IOException, ClassNotFoundException {
+        // Step 1: Stream the .csv file into the SQL temp_unprocessed_sales table, hashing emails on the way.
+        this.loadOrders(customer_orders_file);
 
-        statement.execute("CALL TEAM_6_DB.batchLoading");
+        generateUpdate("CALL TEAM_6_DB.batchLoading");
+        invalidateProductCatalog();
+        if (productFilterFpp > 0)
+            getProductFilter();
 
     }
 
     /**
-     * convert inventory table/unprocessed_sales into java readable format and load a hash map
+     * load inventory into a FulfilmentEngine and make a single ordered pass over unprocessed_sales
      * update product quantity in inventory based on unprocessed_sales order amount
      * if the unprocessed_sales quantity is > inventory quantity then sale cannot be processed. (negative inventory)
-     * Discard any untouched product quantities. (Eliminates any duplicates)
-     * Load the inventory SQL table with new changes to quantity.
-     * Create a new date column and add to the processed_sales table
+     * Only products touched by the batch are written back to inventory.
      * load processed_sales with the information below
-     * date, processed_datetime, un-hashed_email, cust_location, product_id, product_quantity, result
+     * date, processed_datetime, location_tid, product_tid, quantity, result, customer_tid
      * We now have a table with ALL the information we need for analytics.
+     * <p>
+     * Every run has an id in batch_runs. Orders are committed in chunks of setProcessingChunkSize() rows,
+     * each commit removing the chunk's rows from unprocessed_sales and recording a checkpoint in
+     * batch_checkpoints. If a run stops midway, the next call (from either platform) resumes it on the rows
+     * still in unprocessed_sales, so committed orders are never processed twice and rows added or
+     * cancelled in between do not shift anything.
      *
      * @throws SQLException
      */
 
     public void batchProcessing(int resupply_quantity, int platform) throws SQLException {
-        // Step 1: Pull inventory table into Java data structure.
-        ResultSet inv = statement.executeQuery("SELECT product_tid, quantity FROM inventory ");
-        HashMap<Integer, Integer> invHashMap = new HashMap<>();
-        Integer inv_p_tid;
-        Integer inv_quant;
-
-        while (inv.next()) {
-            inv_p_tid = inv.getInt(1);
-            inv_quant = inv.getInt(2);
-            invHashMap.put(inv_p_tid, inv_quant);
-        }
-        HashMap<Integer, Integer> invHashMap_original = new HashMap<>();
-        invHashMap_original.putAll(invHashMap);
-
-        HashMap<Integer, Integer> invHashMap2 = new HashMap<>();
-        invHashMap2.putAll(invHashMap);
-
-
-        // Step 2: Pull unprocessed sales into Java data structure
-        ResultSet us = statement.executeQuery("SELECT * FROM unprocessed_sales ORDER BY date, hashed_email");
-        java.sql.Date us_date;
-        String us_loc;
-        int us_p_tid;
-        int us_quant;
-        String us_email;
-        Set<Transaction> usList = new LinkedHashSet<>();
-
-        while (us.next()) {
-            us_date = us.getDate(1);
-            us_loc = us.getString(2);
-            us_p_tid = us.getInt(3);
-            us_quant = us.getInt(4);
-            us_email = us.getString(5);
-
-            Transaction transaction = new Transaction(us_date, us_loc, us_p_tid, us_quant, us_email);
-            usList.add(transaction);
-        }
-
-        ResultSet us2 = statement.executeQuery("SELECT DISTINCT product_tid, quantity FROM unprocessed_sales");
-        HashMap<Integer, Integer> usalesHashMap = new HashMap<>();
-        Integer usales_p_tid;
-        Integer usales_quant;
-        while (us2.next()) {
-            usales_p_tid = us2.getInt(1);
-            usales_quant = us2.getInt(2);
-            usalesHashMap.put(usales_p_tid, usales_quant);
-        }
-
-
-        Iterator usales_iter = invHashMap2.entrySet().iterator();
-        while (usales_iter.hasNext()) {
-            Map.Entry a = (Map.Entry) usales_iter.next();
-            if (!usalesHashMap.containsKey(a.getKey())) {
-                invHashMap.remove(a.getKey());
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        // The whole run writes on one pooled connection so every chunk is its own transaction. The scan streams
+        // on a second one (a streaming result set blocks every other statement on its connection); both are
+        // borrowed together, so concurrent runs cannot each hold one and wait for the other.
+        Connection[] connections = pool.getConnections(2);
+        try (Connection conn = connections[0]; Connection scan = connections[1]) {
+            // Step 1: Find the unfinished run (of any platform, they share unprocessed_sales) or start a new one.
+            BatchRun run = BatchRun.resumeOrStart(conn, resupply_quantity, platform);
+            if (run.isResumed()) {
+                System.out.println("Resuming batch run " + run.getRunId() + " after row " + run.getRowsDone());
+                // the committed chunks are gone from unprocessed_sales, their dates still need new daily assets;
+                // the checkpoints hold them (processed_dt has no index, so only a run checkpointed before the
+                // dates were recorded falls back to scanning processed_sales)
+                if (run.getFirstDate() != null) {
+                    firstDay = (int) run.getFirstDate().toEpochDay();
+                    lastDay = (int) run.getLastDate().toEpochDay();
+                } else if (run.getRowsDone() > 0) {
+                    try (PreparedStatement ps = conn.prepareStatement("SELECT MIN(date), MAX(date) FROM processed_sales WHERE processed_dt = ?")) {
+                        ps.setTimestamp(1, run.getProcessedDt());
+                        try (ResultSet rs = ps.executeQuery()) {
+                            if (rs.next() && rs.getDate(1) != null) {
+                                firstDay = (int) rs.getDate(1).toLocalDate().toEpochDay();
+                                lastDay = (int) rs.getDate(2).toLocalDate().toEpochDay();
+                            }
+                        }
+                    }
+                }
             }
-        }
 
+            // Step 2: Pull inventory table and product suppliers into the fulfilment engine (primitive maps).
+            // On a resumed run inventory already holds every committed chunk.
+            FulfilmentEngine engine = new FulfilmentEngine(run.getResupplyQuantity(), 32 * 1024);
+            try (Statement st = conn.createStatement();
+                 ResultSet inv = st.executeQuery("SELECT product_tid, quantity, supplier_tid FROM inventory")) {
+                engine.loadInventory(inv);
+            }
 
-        // Step 3: Iteratively compare batch orders to inventory, updating inventory & unprocessed sales Java structures
-        int inv_q;
-        int us_q;
-        List<String[]> psList = new ArrayList<>();
+            //Step 3: Create indexed table to house the new inventory values of products touched by each chunk
+            //(DDL commits implicitly, so it runs before the chunk transactions start)
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate("DROP TABLE IF EXISTS temp_inventory");
+                st.executeUpdate("CREATE TABLE temp_inventory ( product_tid INT, quantity INT, INDEX temp_product_id_index (product_tid) )");
+            }
 
-        Iterator us_iter = usList.iterator();
-        while (us_iter.hasNext()) {
-            Transaction t = (Transaction) us_iter.next();
-            us_q = t.getQuantity();
-            inv_q = invHashMap.get(t.getProduct_TID());
+            ForkJoinPool forkJoinPool = processingThreads > 1 ? new ForkJoinPool(processingThreads) : null;
+            conn.setAutoCommit(false);
+            try {
+                // Step 4: Ordered pass over unprocessed sales in chunks. Every chunk deletes its own rows by us_id,
+                // so a resumed run only sees the rows that were not committed before.
+                String[] headers = {"date", "processed_dt", "location_tid", "product_tid", "quantity", "result", "customer_tid"};
+                TransactionBatch batch = new TransactionBatch(Math.min(processingChunkSize, 64 * 1024));
+                long[] rowIds = new long[Math.min(processingChunkSize, 64 * 1024)];
+                long rowsDone = run.getRowsDone();
+                // The scan streams on scan while the chunks are written and committed on conn.
+                try (PreparedStatement ps = streamingStatement(scan, "SELECT date, location_tid, product_tid, quantity, customer_tid, us_id " +
+                             "FROM unprocessed_sales ORDER BY date, customer_tid, product_tid, quantity, location_tid, us_id");
+                     ResultSet us = ps.executeQuery()) {
+                    boolean more = true;
+                    while (more) {
+                        batch.clear();
+                        while (batch.size() < processingChunkSize && (more = us.next())) {
+                            if (batch.size() == rowIds.length)
+                                rowIds = Arrays.copyOf(rowIds, rowIds.length << 1);
+                            rowIds[batch.size()] = us.getLong(6);
+                            batch.add((int) us.getDate(1).toLocalDate().toEpochDay(), us.getInt(2),
+                                    us.getInt(3), us.getInt(4), us.getInt(5));
+                        }
+                        if (batch.size() == 0)
+                            break;
+                        firstDay = Math.min(firstDay, batch.getDate(0));
+                        lastDay = Math.max(lastDay, batch.getDate(batch.size() - 1));
+
+                        // Step 5: Decide the chunk (split by product across threads in parallel mode).
+                        if (forkJoinPool != null)
+                            engine.fulfil(batch, forkJoinPool, processingThreads * 4);
+                        else
+                            engine.fulfil(batch);
+
+                        // Step 6: Write processed transactions, supplier orders and inventory of the chunk,
+                        // then commit it together with its checkpoint.
+                        try (BulkInserter inserter = bulkInserter(conn, "processed_sales", headers,
+                                new int[]{DATE, DATETIME, INT, INT, INT, INT, INT})) {
+                            batch.writeProcessedSales(inserter, run.getProcessedDt());
+                        }
+                        try (BulkInserter inserter = bulkInserter(conn, "supplier_orders",
+                                new String[]{"date", "supplier_tid", "product_tid", "quantity"}, new int[]{DATE, INT, INT, INT})) {
+                            engine.writeSupplierOrders(batch, inserter);
+                        }
+                        writeInventory(conn, engine);
+                        consumeUnprocessed(conn, rowIds, batch.size());
+
+                        rowsDone += batch.size();
+                        run.checkpoint(rowsDone, LocalDate.ofEpochDay(batch.getDate(0)), LocalDate.ofEpochDay(batch.getDate(batch.size() - 1)));
+                        conn.commit();
+                        reports.invalidate(LocalDate.ofEpochDay(batch.getDate(0)), LocalDate.ofEpochDay(batch.getDate(batch.size() - 1)));
+                    }
+                }
 
-            if (us_q <= inv_q) {
-                invHashMap.put(t.getProduct_TID(), inv_q - us_q); //enough inventory in stock; process sale
-                psList.add(t.processTransaction(1));
-            } else {
-                psList.add(t.processTransaction(0)); //not enough inventory in stock; order more from supplier
-                invHashMap.put(t.getProduct_TID(), inv_q + resupply_quantity);
-                ResultSet s_tid_rs = statement.executeQuery("SELECT supplier_tid FROM dim_product " +
-                        "WHERE product_tid = " + t.getProduct_TID());
-                int s_tid = 0;
-                s_tid_rs.next();
-                s_tid = s_tid_rs.getInt(1);
-                statement.executeUpdate("INSERT INTO supplier_orders " +
-                        "VALUES( " + valueQueryPrep(t.getDate()) + " , " + s_tid + " , " + t.getProduct_TID() + " , " + resupply_quantity + " )");
+                //Step 7: Close the run. Its rows are already gone from unprocessed_sales; rows loaded while it ran
+                //were not in the scan and stay for the next run.
+                run.finish();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } catch (InterruptedException e) {
+                conn.rollback();
+                Thread.currentThread().interrupt();
+                throw new SQLException("Batch processing was interrupted", e);
+            } finally {
+                conn.setAutoCommit(true);
+                if (forkJoinPool != null)
+                    forkJoinPool.shutdown();
             }
         }
 
-        //Step 4: Remove duplicates (unchanged quantities) from hash map to go into inventory SQL table.
-        Iterator iter = invHashMap_original.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry p = (Map.Entry) iter.next();
-            if (invHashMap.get(p.getKey()) == p.getValue())
-                invHashMap.remove(p.getKey());
-        }
+        //Step 8: Recompute daily assets from the first date of the batch onwards (csv and email orders alike).
+        if (lastDay >= firstDay)
+            refreshDailyAssets(LocalDate.ofEpochDay(firstDay), LocalDate.ofEpochDay(lastDay));
 
-        //Step 5: Create indexed tables to house new inventory and historic inventory values on SQL server side
-        createTable("temp_inventory",
-                "product_tid INT, quantity INT, INDEX temp_product_id_index (product_tid)");
+        //Step 9: Delete the temporary inventory table
+        deleteTable("temp_inventory");
 
-        // Step 6: Prepare SQL statement with updated inventory and historic inventory values from Java data structure.
-        Iterator it = invHashMap.entrySet().iterator();
-        LinkedList<Object[]> inv_Array = new LinkedList<>();
+    }
 
-        while (it.hasNext()) {
-            Object[] inv_Arr = new String[2];
-            Map.Entry pair = (Map.Entry) it.next();
-            inv_Arr[0] = pair.getKey().toString();
-            inv_Arr[1] = pair.getValue().toString();
-            inv_Array.add(inv_Arr);
-        }
+    /**
+     * deletes the rows of a chunk from unprocessed_sales inside the chunk transaction.
+     * If a row is already gone (e.g. cancelled by a customer while the run was scanning) the chunk
+     * is refused, so its rollback leaves the run to be resumed on the current rows.
+     *
+     * @param conn   - connection of the running batch transaction
+     * @param rowIds - us_id of every row of the chunk
+     * @param count  - number of rows in the chunk
+     * @throws SQLException
+     */
 
-        String[] inv_headers = {"product_tid", "quantity"};
-        Object[][] inv_objects = new Object[inv_Array.size()][inv_headers.length];
-        for (int j = 0; j < inv_objects.length; j++) {
-            Object[] element = inv_Array.pop();
-            for (int i = 0; i < inv_headers.length; i++) {
-                inv_objects[j][i] = element[i];
+    private void consumeUnprocessed(Connection conn, long[] rowIds, int count) throws SQLException {
+        int deleted = 0;
+        try (Statement st = conn.createStatement()) {
+            for (int from = 0; from < count; from += 5000) {
+                StringBuilder sql = new StringBuilder("DELETE FROM unprocessed_sales WHERE us_id IN (");
+                for (int i = from; i < Math.min(count, from + 5000); i++) {
+                    if (i > from)
+                        sql.append(',');
+                    sql.append(rowIds[i]);
+                }
+                deleted += st.executeUpdate(sql.append(')').toString());
             }
         }
+        if (deleted != count)
+            throw new SQLException((count - deleted) + " rows of the chunk were removed from unprocessed_sales " +
+                    "while it was processed; run batchProcessing again to resume on the current rows");
+    }
 
-        //Step 7: Insert Rows into temp_inventory SQL tables
-        this.setTableName("temp_inventory");
-        this.insertRows(inv_headers, inv_objects);
+    /**
+     * writes the quantities of the products the engine touched since the last call into inventory
+     * (through temp_inventory) and clears the engine's dirty set.
+     *
+     * @param conn   - connection of the running batch transaction
+     * @param engine - fulfilment engine of the running batch
+     * @throws SQLException
+     */
 
-        //Step 8: Optimize batch processing by indexing the temporary table on SQL server side.
-//        statement.executeUpdate("ALTER TABLE temp_inventory ADD INDEX `temp_product_id_index` (`product_id`) ");
+    private void writeInventory(Connection conn, FulfilmentEngine engine) throws SQLException {
+        BitSet dirty = engine.getDirtyProducts();
+        try (BulkInserter inserter = bulkInserter(conn, "temp_inventory",
+                new String[]{"product_tid", "quantity"}, new int[]{INT, INT})) {
+            for (int p_tid = dirty.nextSetBit(0); p_tid >= 0; p_tid = dirty.nextSetBit(p_tid + 1)) {
+                inserter.addRow(new Object[]{p_tid, engine.getQuantity(p_tid)});
+            }
+        }
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("UPDATE inventory, temp_inventory SET inventory.quantity = temp_inventory.quantity " +
+                    "WHERE inventory.product_tid = temp_inventory.product_tid");
+            st.executeUpdate("DELETE FROM temp_inventory");
+        }
+        dirty.clear();
+    }
 
-        //Step 9: Alter inventory & historic inventory with new temporary values
-        updateTableFromTable("inventory", "temp_inventory",
-                "quantity", "quantity",
-                "product_tid", "product_tid");
+    /**
+     * Takes in a inventory csv file and formats the file information to be recognized by SQL
+     * creates four tables: inventory, unprocessed_sales, hash_ref and processed_sales
+     * inventory table is loaded with csv file information
+     * all other tables have specified columns created, are empty and ready to use
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
 
-        //Step 10: Construct second parameter of InsertRows method (2-D Object Array)
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        LinkedList<Object[]> tempArray = new LinkedList<>();
+    // This method streams a .csv file with the specified column types into SQL.
+    public void createDatabaseStructure(String inventory_file) throws SQLException, IOException {
+        // Step 1:
+        generateUpdate("CALL TEAM_6_DB.createDB_Structure");
+        invalidateProductCatalog();
+        reports.invalidateAll();
+        emailHasher.forgetAll();
+        this.verifySchema();
+
+        // Step 10: Stream the .csv file into the temp_inventory table.
+        this.loadFile(inventory_file, new int[]{STRING, INT, DOUBLE, DOUBLE, STRING}, "temp_inventory",
+                new String[]{"product_id", "quantity", "wholesale_cost", "sale_price", "supplier_id"});
+    }
 
-        for (String[] s : psList) {
-            Object[] strArr = new String[7];
+    /**
+     * returns the products of dim_product held in memory, loading them on first use.
+     * order validation looks product_ids up here instead of querying dim_product per line item.
+     *
+     * @return product catalog
+     * @throws SQLException
+     */
 
-            strArr[0] = valueQueryPrep(s[0]);
-            strArr[1] = valueQueryPrep(LocalDateTime.parse(s[1], formatter));
-            strArr[2] = valueQueryPrep(s[2]);
-            strArr[3] = valueQueryPrep(Integer.parseInt(s[3]));
-            strArr[4] = valueQueryPrep(Integer.parseInt(s[4]));
-            strArr[5] = valueQueryPrep(Integer.parseInt(s[5]));
-            strArr[6] = valueQueryPrep(s[6]);
-            tempArray.add(strArr);
+    public ProductCatalog getProductCatalog() throws SQLException {
+        ProductCatalog catalog = productCatalog;
+        if (catalog == null) {
+            synchronized (this) {
+                catalog = productCatalog;
+                if (catalog == null) {
+                    try (Connection conn = pool.getConnection()) {
+                        productCatalog = catalog = ProductCatalog.load(conn);
+                    }
+                }
+            }
         }
+        return catalog;
+    }
 
-        String[] headers = {"date", "processed_dt", "cust_location", "product_tid", "quantity", "result", "hashed_email"};
-        Object[][] objects = new Object[tempArray.size()][headers.length];
-        for (int j = 0; j < objects.length; j++) {
-            Object[] element = tempArray.pop();
-            for (int i = 0; i < headers.length; i++) {
-                objects[j][i] = element[i];
+    /**
+     * drops the in-memory product catalog so the next getProductCatalog() reloads dim_product.
+     * called whenever dim_product is recreated or reloaded.
+     */
+
+    public void invalidateProductCatalog() {
+        productCatalog = null;
+        productFilter = null;
+    }
+
+    /**
+     * setter method for the product_id Bloom filter.
+     * with a rate above 0, product checks first ask a Bloom filter over dim_product.product_id sized for
+     * that false-positive rate, so ids that do not exist (typos, invalid orders) are rejected without
+     * a lookup. 0 turns the filter off.
+     *
+     * @param falsePositiveRate - wanted false-positive rate, for example 0.01, or 0
+     */
+
+    public void setProductFilter(double falsePositiveRate) {
+        this.productFilterFpp = falsePositiveRate;
+        this.productFilter = null;
+    }
+
+    /**
+     * returns the Bloom filter over dim_product.product_id, building it on first use
+     * (it is rebuilt right after batchLoading() reloads dim_product).
+     *
+     * @return the filter, or null if setProductFilter() is off
+     * @throws SQLException
+     */
+
+    public BloomFilter getProductFilter() throws SQLException {
+        double fpp = productFilterFpp;
+        if (fpp <= 0)
+            return null;
+        BloomFilter filter = productFilter;
+        if (filter == null) {
+            synchronized (this) {
+                filter = productFilter;
+                if (filter == null) {
+                    int rows = query("SELECT COUNT(*) FROM dim_product", rs -> rs.next() ? rs.getInt(1) : 0);
+                    BloomFilter built = new BloomFilter(rows, fpp);
+                    forEachRow("SELECT product_id FROM dim_product", rs -> built.put(rs.getString(1)));
+                    productFilter = filter = built;
+                }
             }
         }
+        return filter;
+    }
 
-        //Step 11: Insert Rows into processed_sales SQL table
-        this.setTableName("processed_sales");
-        this.insertRows(headers, objects);
-
-        //Step 11.5: If email orders, add to daily assets file:
-        if (platform == 2)
-            statement.execute("CALL TEAM_6_DB.emailAssetAddition()");
+    /**
+     * checks that a product_id exists in dim_product: definite misses are answered by the Bloom filter
+     * (when on), everything else by the product catalog. Possible hits that turn out not to exist are
+     * counted as false positives on the filter.
+     *
+     * @param productId - product_id to check
+     * @return boolean value
+     * @throws SQLException
+     */
 
-        //Step 12: Truncate unprocessed_sales table.
-        statement.executeUpdate("TRUNCATE unprocessed_sales");
+    public boolean productExists(String productId) throws SQLException {
+        BloomFilter filter = getProductFilter();
+        if (filter != null && !filter.mightContain(productId))
+            return false;
+        boolean exists = getProductCatalog().contains(productId);
+        if (filter != null && !exists)
+            filter.recordFalsePositive();
+        return exists;
+    }
 
-        //Step 13: Delete the temporary inventory and temporary historic inventory tables
-        deleteTable("temp_inventory");
+    /**
+     * makes sure the permanent indexes of the fact and dimension tables exist and creates any that are missing.
+     * Runs at startup and after createDatabaseStructure(), so no procedure has to add and drop indexes per call.
+     *
+     * @throws SQLException
+     */
 
+    public void verifySchema() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            for (String fix : new SchemaManager(conn).verifyIndexes()) {
+                System.out.println("Schema: " + fix);
+            }
+        }
     }
 
     /**
-     * Takes in a inventory csv file and formats the file information to be recognized by SQL
-     * creates four tables: inventory, unprocessed_sales, hash_ref and processed_sales
-     * inventory table is loaded with csv file information
-     * all other tables have specified columns created, are empty and ready to use
+     * one-time migration for databases created before hash_ref was keyed by a BINARY(16) digest, the original
+     * layout included: rebuilds hash_ref with one row per customer, fills dim_customer and dim_location and
+     * rewrites processed_sales and unprocessed_sales to their int keys, and converts the hashes of dim_customer
+     * and temp_unprocessed_sales to digests. Does nothing on a database that is already migrated.
+     * Reinstall the procedures from sql_snippets afterwards.
      *
      * @throws SQLException
-     * @throws FileNotFoundException
      */
 
-    // This method takes in a .csv file and turns it into a 2D array with the specified column types.
-    // Making the format compatible for SQL to read
-    public void createDatabaseStructure(String inventory_file) throws SQLException, FileNotFoundException {
-        // Step 1:
-        statement.execute("CALL TEAM_6_DB.createDB_Structure");
+    public void compactHashRef() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            for (String step : new SchemaManager(conn).compactHashRef()) {
+                System.out.println("Schema: " + step);
+            }
+        }
+    }
+
+    /**
+     * optionally partitions processed_sales and supplier_orders by month of date, so date-bounded
+     * analytics only read the partitions in range. Months after end share one partition.
+     *
+     * @param start - first month to get its own partition
+     * @param end   - last month to get its own partition
+     * @throws SQLException
+     */
 
-        // Step 10: Load temp_inventory table with Java 2-D Array using .csv file for data source.
-        Object[][] objArr = this.csvToArray(inventory_file, new int[]{STRING, INT, DOUBLE, DOUBLE, STRING});
-        this.setTableName("temp_inventory");
-        this.insertRows(new String[]{"product_id", "quantity", "wholesale_cost", "sale_price", "supplier_id"}, objArr);
+    public void partitionFactTables(LocalDate start, LocalDate end) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            SchemaManager schemaManager = new SchemaManager(conn);
+            schemaManager.partitionByDate("processed_sales", start, end);
+            schemaManager.partitionByDate("supplier_orders", start, end);
+        }
     }
 
     /**
@@ -301,7 +548,7 @@ public class QueryMaker {
 
     public void createTable(String tableName, String columnSpecs) throws SQLException {
         this.deleteTable(tableName);
-        statement.executeUpdate("CREATE TABLE " + tableName + " ( " + columnSpecs + " )");
+        generateUpdate("CREATE TABLE " + tableName + " ( " + columnSpecs + " )");
     }
 
     /**
@@ -337,6 +584,167 @@ public class QueryMaker {
         return objects;
     }
 
+    /**
+     * loads a csv file into a table using the loader mode picked with setUseLocalInfile().
+     * LOAD DATA LOCAL INFILE streams the original file to the server over a connection of its own, the
+     * only kind opened with allowLoadLocalInfile; if the server or driver does not allow local infile
+     * the batch INSERT path of loadCsv() is used instead.
+     *
+     * @param fileName    - csv filename
+     * @param types       - integer array of types (STRING, DATE, INT etc..)
+     * @param tableName   - name of the table to load
+     * @param columnNames - names of the table columns, in csv column order
+     * @return row count, warnings and rejects of the load
+     * @throws IOException
+     * @throws SQLException
+     */
+
+    public LocalInfileLoader.Result loadFile(String fileName, int[] types, String tableName, String[] columnNames) throws IOException, SQLException {
+        LocalInfileLoader.Result result = null;
+        if (useLocalInfile) {
+            try (Connection conn = localInfileConnections.create()) {
+                result = new LocalInfileLoader(conn).load(fileName, tableName, columnNames);
+            } catch (SQLException e) {
+                if (!LocalInfileLoader.isLocalInfileDisabled(e))
+                    throw e;
+                System.out.println("LOAD DATA LOCAL INFILE is not allowed, falling back to batch inserts.");
+                useLocalInfile = false;
+            }
+        }
+        if (result == null)
+            result = new LocalInfileLoader.Result(loadCsv(fileName, types, tableName, columnNames), 0, 0, new ArrayList<>());
+
+        System.out.println(tableName + ": " + result);
+        for (String message : result.getWarningMessages()) {
+            System.out.println("  " + message);
+        }
+        return result;
+    }
+
+    /**
+     * streams a customer orders csv file (date, cust_email, cust_location, product_id, product_quantity)
+     * into temp_unprocessed_sales, replacing every email with its 16 byte MD5 digest before it is sent.
+     * Customers not seen before are upserted into hash_ref on the same connection, and marked as
+     * committed once every row has been sent.
+     * The rows have to pass through Java to be hashed, so this path does not use LOAD DATA LOCAL INFILE.
+     *
+     * @param fileName - csv filename
+     * @return number of rows loaded
+     * @throws IOException
+     * @throws SQLException
+     */
+
+    public long loadOrders(String fileName) throws IOException, SQLException {
+        try (Connection conn = pool.getConnection();
+             CsvStreamReader reader = new CsvStreamReader(fileName, new int[]{DATE, STRING, STRING, STRING, INT});
+             BulkInserter inserter = this.bulkInserter(conn, "temp_unprocessed_sales",
+                     new String[]{"date", "hashed_email", "cust_location", "product_id", "product_quantity"},
+                     new int[]{DATE, BINARY, STRING, STRING, INT})) {
+            EmailHasher.Customers hashed = emailHasher.customers();
+            long rows = reader.stream(inserter.getBatchSize(), (batch, count) -> {
+                for (int i = 0; i < count; i++) {
+                    batch[i][1] = hashed.hash((String) batch[i][1]);
+                }
+                inserter.addRows(batch, count);
+            });
+            int customers = upsertHashRef(conn, hashed);
+            // the connection is in auto-commit mode, so the customers are in hash_ref now
+            hashed.committed();
+            System.out.println("temp_unprocessed_sales: " + rows + " rows, " + customers + " customers sent to hash_ref");
+            return rows;
+        }
+    }
+
+    /**
+     * writes the customers of one transaction to hash_ref with INSERT IGNORE, so customers
+     * already in the table are skipped by its primary key and every ingestion path can upsert freely.
+     * Call customers.committed() once the transaction has committed.
+     *
+     * @param conn      - connection to write with, may be inside a transaction
+     * @param customers - customers hashed by the transaction
+     * @return number of customers sent
+     * @throws SQLException
+     */
+
+    public int upsertHashRef(Connection conn, EmailHasher.Customers customers) throws SQLException {
+        try (BulkInserter inserter = this.bulkInserter(conn, "INSERT IGNORE INTO", "hash_ref",
+                new String[]{"hashed_email", "unhashed_email"}, new int[]{BINARY, STRING})) {
+            return customers.write(inserter);
+        }
+    }
+
+    /**
+     * streams a csv file into a table without holding the file in memory.
+     * rows are parsed with the given column types and pushed to the database through a BulkInserter,
+     * so peak memory stays the same no matter how big the file is.
+     *
+     * @param fileName    - csv filename
+     * @param types       - integer array of types (STRING, DATE, INT etc..)
+     * @param tableName   - name of the table to load
+     * @param columnNames - names of the table columns, in csv column order
+     * @return number of rows loaded
+     * @throws IOException
+     * @throws SQLException
+     */
+
+    public long loadCsv(String fileName, int[] types, String tableName, String[] columnNames) throws IOException, SQLException {
+        try (Connection conn = pool.getConnection();
+             CsvStreamReader reader = new CsvStreamReader(fileName, types);
+             BulkInserter inserter = this.bulkInserter(conn, tableName, columnNames, types)) {
+            return reader.stream(inserter.getBatchSize(), inserter::addRows);
+        }
+    }
+
+    /**
+     * creates a parameterized bulk insert for a table on the given connection.
+     * batch size is worked out from the row width and the server max_allowed_packet.
+     *
+     * @param conn        - connection borrowed with getConnection(), stays open after the inserter is closed.
+     * @param tableName   - name of table.
+     * @param columnNames - names of the columns being filled.
+     * @param types       - integer array of types (STRING, DATE, INT etc..)
+     * @return bulk inserter that must be closed to send the last batch.
+     * @throws SQLException
+     */
+
+    public BulkInserter bulkInserter(Connection conn, String tableName, String[] columnNames, int[] types) throws SQLException {
+        return new BulkInserter(conn, tableName, columnNames, types, getMaxAllowedPacket(conn));
+    }
+
+    /**
+     * same as bulkInserter(), with a different insert verb (for example INSERT IGNORE INTO).
+     *
+     * @param conn        - connection borrowed with getConnection(), stays open after the inserter is closed.
+     * @param insertVerb  - leading keywords of the statement
+     * @param tableName   - name of table.
+     * @param columnNames - names of the columns being filled.
+     * @param types       - integer array of types (STRING, DATE, INT etc..)
+     * @return bulk inserter that must be closed to send the last batch.
+     * @throws SQLException
+     */
+
+    public BulkInserter bulkInserter(Connection conn, String insertVerb, String tableName, String[] columnNames, int[] types) throws SQLException {
+        return new BulkInserter(conn, insertVerb, tableName, columnNames, types, getMaxAllowedPacket(conn));
+    }
+
+    /**
+     * reads the server max_allowed_packet once and keeps it for sizing bulk inserts.
+     *
+     * @param conn - open connection
+     * @return max_allowed_packet in bytes.
+     * @throws SQLException
+     */
+
+    private long getMaxAllowedPacket(Connection conn) throws SQLException {
+        if (maxAllowedPacket == 0) {
+            try (Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT @@max_allowed_packet")) {
+                maxAllowedPacket = rs.next() ? rs.getLong(1) : 4 * 1024 * 1024;
+            }
+        }
+        return maxAllowedPacket;
+    }
+
     /**
      * deletes any values from a table based on three of the following arguments:
      *
@@ -347,7 +755,7 @@ public class QueryMaker {
      */
 
     public void deleteRecords(String tableName, String columnName, double value) throws SQLException {
-        statement.executeUpdate("DELETE FROM " + tableName + "WHERE " + columnName + " = " + valueQueryPrep(value));
+        cachedUpdate("DELETE FROM " + identifier(tableName) + " WHERE " + identifier(columnName) + " = ?", value);
     }
 
     /**
@@ -360,7 +768,7 @@ public class QueryMaker {
      */
 
     public void deleteRecords(String tableName, String columnName, int value) throws SQLException {
-        statement.executeUpdate("DELETE FROM " + tableName + " WHERE " + columnName + " = " + valueQueryPrep(value));
+        cachedUpdate("DELETE FROM " + identifier(tableName) + " WHERE " + identifier(columnName) + " = ?", value);
     }
 
     /**
@@ -373,7 +781,7 @@ public class QueryMaker {
      */
 
     public void deleteRecords(String tableName, String columnName, String value) throws SQLException {
-        statement.executeUpdate("DELETE FROM " + tableName + "WHERE " + columnName + " = " + valueQueryPrep(value));
+        cachedUpdate("DELETE FROM " + identifier(tableName) + " WHERE " + identifier(columnName) + " = ?", value);
     }
 
     /**
@@ -395,7 +803,7 @@ public class QueryMaker {
      */
 
     public void deleteTable(String tableName) throws SQLException {
-        statement.executeUpdate("DROP TABLE IF EXISTS " + tableName);
+        generateUpdate("DROP TABLE IF EXISTS " + tableName);
     }
 
     /**
@@ -407,7 +815,7 @@ public class QueryMaker {
      */
 
     public void deleteTableWithCond(String tableName, String condition) throws SQLException {
-        statement.executeUpdate("DROP TABLE IF EXISTS " + tableName + " " + condition);
+        generateUpdate("DROP TABLE IF EXISTS " + tableName + " " + condition);
     }
 
     /**
@@ -442,34 +850,93 @@ public class QueryMaker {
 
     public Object[][] extractResults(ResultSet rs, Boolean isOneColumn) throws SQLException {
         ArrayList<Object[]> temp = new ArrayList<>();
-        int columnCount = rs.getMetaData().getColumnCount();
-        for (int j = 0; rs.next(); j++) {
-            Object[] objects = new Object[columnCount];
-            for (int i = 0; i < columnCount; i++) {
-                objects[i] = rs.getObject(i + 1);
-            }
-            temp.add(objects);
+        while (rs.next()) {
+            temp.add(rowValues(rs));
         }
-        Object[][] data = new Object[temp.size()][columnCount];
-        Iterator<Object[]> it = temp.iterator();
-        for (int i = 0; i < data.length; i++) {
-            data[i] = it.next();
+        return temp.toArray(new Object[0][]);
+    }
+
+    /**
+     * row mapper that copies the current row into an Object array, one element per column.
+     *
+     * @param rs - result set positioned on a row
+     * @return values of the row
+     * @throws SQLException
+     */
+
+    public static Object[] rowValues(ResultSet rs) throws SQLException {
+        Object[] values = new Object[rs.getMetaData().getColumnCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rs.getObject(i + 1);
         }
-        return data;
+        return values;
     }
 
+    /**
+     * fills daily_assets for every day between start and end (inclusive) with a single procedure call.
+     * each day is computed from running sums of the sales and restocks after it, so the whole range
+     * costs one pass over processed_sales and supplier_orders.
+     *
+     * @param start - first date, yyyy-MM-dd
+     * @param end   - last date, yyyy-MM-dd
+     * @throws SQLException
+     */
+
     public void generateDailyAssets(String start, String end) throws SQLException {
-        LocalDate start_ld = LocalDate.parse(start);
-        LocalDate end_ld = LocalDate.parse(end);
-        int stopPoint = (int) DAYS.between(start_ld, end_ld) + 1;
-        for (int i = 0; i < stopPoint; i++) {
-            statement.executeUpdate("CALL TEAM_6_DB.generateDailyAssets( '" + start_ld.toString() + "')");
-            start_ld = start_ld.plusDays(1);
+        generateDailyAssets(LocalDate.parse(start), LocalDate.parse(end));
+    }
+
+    private void generateDailyAssets(LocalDate start, LocalDate end) throws SQLException {
+        if (javaAnalytics) {
+            AssetSnapshot snapshot = loadSnapshot();
+            try (Connection conn = pool.getConnection()) {
+                try (PreparedStatement ps = conn.prepareStatement("DELETE FROM daily_assets WHERE date BETWEEN ? AND ?")) {
+                    ps.setDate(1, java.sql.Date.valueOf(start));
+                    ps.setDate(2, java.sql.Date.valueOf(end));
+                    ps.executeUpdate();
+                }
+                try (BulkInserter inserter = bulkInserter(conn, "daily_assets", new String[]{"date", "assets"}, new int[]{DATE, DOUBLE})) {
+                    snapshot.writeDailyAssets(start, end, inserter);
+                }
+            }
+            return;
         }
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement("CALL TEAM_6_DB.incrementalDailyAssets(?, ?)")) {
+            ps.setDate(1, java.sql.Date.valueOf(start));
+            ps.setDate(2, java.sql.Date.valueOf(end));
+            ps.execute();
+        }
+    }
+
+    /**
+     * brings daily_assets up to date after a batch with orders from first to last was processed.
+     * days before the batch do not change, so only days from the first batch date onwards are recomputed.
+     * nothing is done if daily assets were never generated.
+     *
+     * @param first - earliest order date of the batch
+     * @param last  - latest order date of the batch
+     * @throws SQLException
+     */
+
+    public void refreshDailyAssets(LocalDate first, LocalDate last) throws SQLException {
+        java.sql.Date generatedEnd;
+        try (Connection conn = pool.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MAX(date) FROM daily_assets")) {
+            generatedEnd = rs.next() ? rs.getDate(1) : null;
+        }
+        if (generatedEnd == null)
+            return;
+        LocalDate end = generatedEnd.toLocalDate().isAfter(last) ? generatedEnd.toLocalDate() : last;
+        generateDailyAssets(first, end);
     }
 
     /**
      * given an argument (any SQL statement) it will return a table of useful data.
+     * the rows are copied into a disconnected CachedRowSet, so the pooled connection is given back
+     * before this method returns and the result stays usable after later queries.
+     * the whole result is held in memory; use query() or queryStreaming() for large results.
      *
      * @param s - any SQL syntax commands.
      * @return returns a table of data that is scrollable.
@@ -477,11 +944,11 @@ public class QueryMaker {
      */
 
     public ResultSet generateQuery(String s) throws SQLException {
-        Statement st = connection.createStatement(
-                ResultSet.TYPE_SCROLL_INSENSITIVE,
-                ResultSet.CONCUR_UPDATABLE);
-        return st.executeQuery(s);
-
+        try (Connection conn = pool.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(s)) {
+            return cache(rs);
+        }
     }
 
     /**
@@ -492,10 +959,265 @@ public class QueryMaker {
      */
 
     public void generateUpdate(String s) throws SQLException {
-        Statement st = connection.createStatement(
-                ResultSet.TYPE_SCROLL_INSENSITIVE,
-                ResultSet.CONCUR_UPDATABLE);
-        st.execute(s);
+        try (Connection conn = pool.getConnection();
+             Statement st = conn.createStatement()) {
+            st.execute(s);
+        }
+    }
+
+    /**
+     * runs a query on a forward-only, read-only cursor and hands the open result set to the handler.
+     * the statement, result set and pooled connection are closed as soon as the handler returns,
+     * so nothing is left open on the server or buffered beyond what the handler keeps.
+     *
+     * @param sql     - query with one ? per parameter
+     * @param handler - reads the result set, must not keep it
+     * @param params  - parameter values (String, Integer, Double, LocalDate, LocalDateTime, java.sql types..)
+     * @return whatever the handler returns
+     * @throws SQLException
+     */
+
+    public <T> T query(String sql, ResultSetHandler<T> handler, Object... params) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                return handler.handle(rs);
+            }
+        }
+    }
+
+    /**
+     * same as query(), but rows are streamed from the server instead of being buffered client side,
+     * so scans of large tables such as unprocessed_sales or processed_sales run in constant memory.
+     * the connection cannot run anything else until the handler returns.
+     *
+     * @param sql     - query with one ? per parameter
+     * @param handler - reads the result set, must not keep it
+     * @param params  - parameter values
+     * @return whatever the handler returns
+     * @throws SQLException
+     */
+
+    public <T> T queryStreaming(String sql, ResultSetHandler<T> handler, Object... params) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = streamingStatement(conn, sql)) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                return handler.handle(rs);
+            }
+        }
+    }
+
+    /**
+     * maps every row of a query and returns the mapped rows.
+     *
+     * @param sql    - query with one ? per parameter
+     * @param mapper - turns the current row into a T
+     * @param params - parameter values
+     * @return mapped rows in result order
+     * @throws SQLException
+     */
+
+    public <T> List<T> queryList(String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+        return query(sql, rs -> {
+            List<T> rows = new ArrayList<>();
+            while (rs.next()) {
+                rows.add(mapper.map(rs));
+            }
+            return rows;
+        }, params);
+    }
+
+    /**
+     * streams the rows of a query to a callback one at a time without keeping any of them,
+     * for example to export processed_sales in constant memory.
+     *
+     * @param sql      - query with one ? per parameter
+     * @param callback - called once per row, must not keep the result set
+     * @param params   - parameter values
+     * @return number of rows read
+     * @throws SQLException
+     */
+
+    public long forEachRow(String sql, RowCallback callback, Object... params) throws SQLException {
+        return queryStreaming(sql, rs -> {
+            long rows = 0;
+            while (rs.next()) {
+                callback.row(rs);
+                rows++;
+            }
+            return rows;
+        }, params);
+    }
+
+    /**
+     * returns the rows of a query as a lazily fetched Stream backed by a server side cursor.
+     * rows are fetched setStreamingFetchSize() (or CURSOR_FETCH_SIZE) at a time while the stream is consumed,
+     * so stream(...).limit(n) only reads about n rows. The stream holds a pooled connection and must be
+     * closed, use try-with-resources. SQL errors while reading are thrown as IllegalStateException.
+     *
+     * @param sql    - query with one ? per parameter
+     * @param mapper - turns the current row into a T
+     * @param params - parameter values
+     * @return stream of mapped rows, to be closed
+     * @throws SQLException
+     */
+
+    public <T> Stream<T> stream(String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+        Connection conn = pool.getConnection();
+        try {
+            PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(streamingFetchSize > 0 ? streamingFetchSize : CURSOR_FETCH_SIZE);
+            bind(ps, params);
+            ResultSet rs = ps.executeQuery();
+            Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    try {
+                        if (!rs.next())
+                            return false;
+                        action.accept(mapper.map(rs));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new IllegalStateException("Reading row failed: " + sql, e);
+                    }
+                }
+            };
+            return StreamSupport.stream(rows, false).onClose(() -> {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (SQLException | RuntimeException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    /**
+     * runs an INSERT, UPDATE, DELETE or DDL statement with parameters and closes it.
+     *
+     * @param sql    - statement with one ? per parameter
+     * @param params - parameter values
+     * @return number of rows changed
+     * @throws SQLException
+     */
+
+    public int update(String sql, Object... params) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            bind(ps, params);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * runs a query through the statement cache of the borrowed connection: the first call with a given SQL
+     * prepares it on the server, later calls only bind and execute. Use for small, frequently repeated
+     * lookups; the SQL must not contain values, only ? placeholders.
+     *
+     * @param sql     - query with one ? per parameter
+     * @param handler - reads the result set, must not keep it
+     * @param params  - parameter values
+     * @return whatever the handler returns
+     * @throws SQLException
+     */
+
+    public <T> T cachedQuery(String sql, ResultSetHandler<T> handler, Object... params) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement ps = pool.prepareCached(conn, sql);
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                return handler.handle(rs);
+            }
+        }
+    }
+
+    /**
+     * runs an INSERT, UPDATE or DELETE through the statement cache of the borrowed connection, see cachedQuery().
+     *
+     * @param sql    - statement with one ? per parameter
+     * @param params - parameter values
+     * @return number of rows changed
+     * @throws SQLException
+     */
+
+    public int cachedUpdate(String sql, Object... params) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement ps = pool.prepareCached(conn, sql);
+            bind(ps, params);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * checks that a table or column name is a plain identifier before it is put into SQL,
+     * since names cannot be bound as parameters.
+     *
+     * @param name - table or column name
+     * @return the name
+     */
+
+    private static String identifier(String name) {
+        if (name == null || !name.matches("[A-Za-z0-9_]+"))
+            throw new IllegalArgumentException("Not a valid table or column name: " + name);
+        return name;
+    }
+
+    /**
+     * prepares a forward-only, read-only statement that streams its rows.
+     * with the default fetch size (Integer.MIN_VALUE) Connector/J reads rows one by one off the socket;
+     * a positive fetch size uses a server side cursor (useCursorFetch) and fetches that many rows at a time.
+     *
+     * @param conn - open connection
+     * @param sql  - query
+     * @return statement to execute and close
+     * @throws SQLException
+     */
+
+    private PreparedStatement streamingStatement(Connection conn, String sql) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ps.setFetchSize(streamingFetchSize);
+        return ps;
+    }
+
+    /**
+     * sets the parameters of a statement, converting java.time values to their java.sql types.
+     *
+     * @param ps     - prepared statement
+     * @param params - parameter values in order
+     * @throws SQLException
+     */
+
+    private static void bind(PreparedStatement ps, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            Object value = params[i];
+            if (value instanceof LocalDate)
+                ps.setDate(i + 1, java.sql.Date.valueOf((LocalDate) value));
+            else if (value instanceof LocalDateTime)
+                ps.setTimestamp(i + 1, Timestamp.valueOf((LocalDateTime) value));
+            else
+                ps.setObject(i + 1, value);
+        }
+    }
+
+    /**
+     * copies a result set into a scrollable CachedRowSet that does not need its connection anymore.
+     *
+     * @param rs - open result set, read to the end
+     * @return disconnected copy of the rows
+     * @throws SQLException
+     */
+
+    private static ResultSet cache(ResultSet rs) throws SQLException {
+        if (rowSetFactory == null)
+            rowSetFactory = RowSetProvider.newFactory();
+        CachedRowSet crs = rowSetFactory.createCachedRowSet();
+        crs.populate(rs);
+        return crs;
     }
 
     /**
@@ -507,12 +1229,14 @@ public class QueryMaker {
      */
 
     public String[] getColumnNames() throws SQLException {
-        ResultSet rs = generateQuery("SELECT `COLUMN_NAME` FROM `INFORMATION_SCHEMA`.`COLUMNS` WHERE `TABLE_SCHEMA`='TEAM_6_DB' AND `TABLE_NAME`='" + this.tableName + "'");
-        String[] columnNames = new String[rowCountResults(rs)];
-        for (int j = 0; rs.next(); j++) {
-            columnNames[j] = rs.getString(1);
-        }
-        return columnNames;
+        return query("SELECT `COLUMN_NAME` FROM `INFORMATION_SCHEMA`.`COLUMNS` WHERE `TABLE_SCHEMA`='TEAM_6_DB' AND `TABLE_NAME`= ? " +
+                "ORDER BY `ORDINAL_POSITION`", rs -> {
+            ArrayList<String> columnNames = new ArrayList<>();
+            while (rs.next()) {
+                columnNames.add(rs.getString(1));
+            }
+            return columnNames.toArray(new String[0]);
+        }, this.tableName);
     }
 
     public ArrayList<Object[]> getAnalyticsData(String start, String end, int choice) throws SQLException {
@@ -520,45 +1244,38 @@ public class QueryMaker {
         LocalDate end_ld = LocalDate.parse(end);
         ArrayList<Object[]> al = new ArrayList<>();
 
-        statement.executeUpdate("SET @startDate = '" + start_ld.toString() + "'");
-        statement.executeUpdate("SET @endDate = '" + end_ld.toString() + "'");
-        Object[] arr = new Object[6];
-        if (choice == 1) {
-            ResultSet rs = statement.executeQuery("call TEAM_6_DB.specificDailyAssets(@startDate, @endDate)");
-
-            while (rs.next()) {
-                arr = new Object[6];
-                for (int i = 0; i < arr.length; i++) {
-                    if (i < arr.length - 1)
-                        arr[i] = rs.getInt(i + 1);
-                    else
-                        arr[i] = rs.getDouble(i + 1);
-                }
-                al.add(arr);
-            }
+        if (choice == 1 && javaAnalytics) {
+            al = loadSnapshot().analyticsRows(start_ld, end_ld);
+        } else if (choice == 1) {
+            al = query("CALL TEAM_6_DB.specificDailyAssets(?, ?)", rs -> analyticsRows(rs, true), start_ld, end_ld);
         } else if (choice == 2) {
-            ResultSet rs = statement.executeQuery("call TEAM_6_DB.daily_orders(@startDate, @endDate)");
-
-            while (rs.next()) {
-                arr = new Object[6];
-                for (int i = 0; i < arr.length; i++) {
-                    arr[i] = rs.getInt(i + 1);
-                }
-                al.add(arr);
-            }
+            al = query("CALL TEAM_6_DB.daily_orders(?, ?)", rs -> analyticsRows(rs, false), start_ld, end_ld);
         } else if (choice == 3) {
-            ResultSet rs = statement.executeQuery("call TEAM_6_DB.daily_purchases(@startDate, @endDate)");
+            al = query("CALL TEAM_6_DB.daily_purchases(?, ?)", rs -> analyticsRows(rs, true), start_ld, end_ld);
+        }
+        return al;
+    }
 
-            while (rs.next()) {
-                arr = new Object[6];
-                for (int i = 0; i < arr.length; i++) {
-                    if (i < arr.length - 1)
-                        arr[i] = rs.getInt(i + 1);
-                    else
-                        arr[i] = rs.getDouble(i + 1);
-                }
-                al.add(arr);
+    /**
+     * reads (minute, hour, day, month, year, value) rows of the analytics procedures.
+     *
+     * @param rs          - result of the procedure
+     * @param doubleValue - true if the value column is a DECIMAL, false if it is a count
+     * @return list of rows for charting
+     * @throws SQLException
+     */
+
+    private static ArrayList<Object[]> analyticsRows(ResultSet rs, boolean doubleValue) throws SQLException {
+        ArrayList<Object[]> al = new ArrayList<>();
+        while (rs.next()) {
+            Object[] arr = new Object[6];
+            for (int i = 0; i < arr.length; i++) {
+                if (i < arr.length - 1 || !doubleValue)
+                    arr[i] = rs.getInt(i + 1);
+                else
+                    arr[i] = rs.getDouble(i + 1);
             }
+            al.add(arr);
         }
         return al;
     }
@@ -575,34 +1292,137 @@ public class QueryMaker {
      */
 
     public Object[][] getProduct(final String tableName, final String columnName, Object columnValue) throws SQLException {
-        ResultSet rs = generateQuery("SELECT * FROM " + tableName + " WHERE " + columnName + " = " + quoteWrap(columnValue));
-        String s = "select count(*) from " + tableName + " where " + columnName + " = " + getString(columnValue);
-        ResultSet resultCount = generateQuery(s);
-        return extractResults(rs, true);
+        return cachedQuery("SELECT * FROM " + identifier(tableName) + " WHERE " + identifier(columnName) + " = ?",
+                rs -> extractResults(rs, true), columnValue);
     }
 
     /**
-     * quote wraps a specified String or Date based on the argument below.
+     * getter method for returning the table name.
      *
-     * @param columnValue - any column containing a String or Date will be wrapped in quotes for SQL syntax.
-     * @return
+     * @return - any table name found in the database.
+     */
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return true if csv files are loaded with LOAD DATA LOCAL INFILE.
+     */
+
+    public boolean isUseLocalInfile() {
+        return useLocalInfile;
+    }
+
+    /**
+     * setter method for the csv loader mode.
+     * when true, csv files are streamed with LOAD DATA LOCAL INFILE (the server must have local_infile enabled),
+     * otherwise they are parsed in Java and written with batch inserts.
+     *
+     * @param useLocalInfile - boolean value
+     */
+
+    public void setUseLocalInfile(boolean useLocalInfile) {
+        this.useLocalInfile = useLocalInfile;
+    }
+
+    /**
+     * @return number of threads batchProcessing() uses to decide orders.
      */
 
-    private String getString(Object columnValue) {
-        if (columnValue instanceof String || columnValue instanceof LocalDate) {
-            return "'" + columnValue + "'";
+    public int getProcessingThreads() {
+        return processingThreads;
+    }
+
+    /**
+     * setter method for the batch processing mode.
+     * with more than one thread, each chunk of unprocessed sales is split by product_tid and decided
+     * in parallel on a ForkJoinPool. The output matches the sequential run exactly.
+     *
+     * @param processingThreads - number of threads, 1 for sequential processing
+     */
+
+    public void setProcessingThreads(int processingThreads) {
+        this.processingThreads = Math.max(1, processingThreads);
+    }
+
+    /**
+     * setter method for the analytics mode.
+     * when true, daily assets are computed in Java from an AssetSnapshot (one read of inventory, processed_sales
+     * and supplier_orders) instead of the incrementalDailyAssets procedure, and getAnalyticsData() returns
+     * assets straight from the snapshot.
+     *
+     * @param javaAnalytics - boolean value
+     */
+
+    public void setJavaAnalytics(boolean javaAnalytics) {
+        this.javaAnalytics = javaAnalytics;
+    }
+
+    /**
+     * setter method for the connection snapshots are read from, for example a read replica.
+     * when not set a connection is borrowed from the pool.
+     *
+     * @param analyticsConnection - open connection
+     */
+
+    public void setAnalyticsConnection(Connection analyticsConnection) {
+        this.analyticsConnection = analyticsConnection;
+    }
+
+    private AssetSnapshot loadSnapshot() throws SQLException {
+        Connection replica = analyticsConnection;
+        if (replica != null)
+            return AssetSnapshot.load(replica);
+        try (Connection conn = pool.getConnection()) {
+            return AssetSnapshot.load(conn);
         }
-        return columnValue.toString();
     }
 
     /**
-     * getter method for returning the table name.
+     * setter method for the number of unprocessed sales committed (and checkpointed) at a time by batchProcessing().
      *
-     * @return - any table name found in the database.
+     * @param processingChunkSize - rows per chunk
      */
 
-    public String getTableName() {
-        return tableName;
+    public void setProcessingChunkSize(int processingChunkSize) {
+        this.processingChunkSize = Math.max(1, processingChunkSize);
+    }
+
+    /**
+     * setter method for how queryStreaming() and the batchProcessing() scan fetch rows.
+     * Integer.MIN_VALUE (default) streams rows one at a time; a positive value opens a server side
+     * cursor and fetches that many rows per round trip.
+     *
+     * @param streamingFetchSize - Integer.MIN_VALUE or rows per fetch
+     */
+
+    public void setStreamingFetchSize(int streamingFetchSize) {
+        this.streamingFetchSize = streamingFetchSize > 0 ? streamingFetchSize : Integer.MIN_VALUE;
+    }
+
+    /**
+     * reads an open result set, see query().
+     */
+
+    public interface ResultSetHandler<T> {
+        T handle(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * maps the current row of a result set, see queryList() and stream().
+     */
+
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * receives the current row of a result set, see forEachRow().
+     */
+
+    public interface RowCallback {
+        void row(ResultSet rs) throws SQLException;
     }
 
     /**
@@ -653,6 +1473,23 @@ public class QueryMaker {
         }
     }
 
+    /**
+     * call setTableName() to proceed to use this method.
+     * loads rows of plain (not quote wrapped) values using a parameterized batch insert.
+     *
+     * @param columnNames - names of all the columns.
+     * @param types       - integer array of types (STRING, DATE, INT etc..)
+     * @param rows        - 2D array of all the information to add.
+     * @throws SQLException
+     */
+
+    public void insertRows(String[] columnNames, int[] types, Object[][] rows) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             BulkInserter inserter = bulkInserter(conn, tableName, columnNames, types)) {
+            inserter.addRows(rows, rows.length);
+        }
+    }
+
     /**
      * add new information into a table with unspecified column given the two following arguments:
      *
@@ -662,7 +1499,7 @@ public class QueryMaker {
      */
 
     public void insertRecordIntoTable(String tableName, String values) throws SQLException {
-        statement.executeUpdate("INSERT INTO " + tableName + " VALUES ( " + values + " ) ");
+        generateUpdate("INSERT INTO " + tableName + " VALUES ( " + values + " ) ");
     }
 
     /**
@@ -675,25 +1512,11 @@ public class QueryMaker {
      */
 
     public void insertValuesIntoTable(String tableName, String columnNames, String values) throws SQLException {
-        statement.executeUpdate("INSERT INTO " + tableName + " ( " + columnNames + " ) VALUES ( " + values + " ) ");
+        generateUpdate("INSERT INTO " + tableName + " ( " + columnNames + " ) VALUES ( " + values + " ) ");
     }
 
     public void processEmails() throws SQLException {
-        statement.execute("CALL TEAM_6_DB.emailLoading();");
-    }
-
-    /**
-     * If the information is of type String or LocalDate then it will be formatted for SQL readable syntax.
-     *
-     * @param columnValue - value must be of type String or LocalDate.
-     * @return returns a string of SQL friendly syntax.
-     */
-    private String quoteWrap(Object columnValue) {
-        if (columnValue instanceof String || columnValue instanceof LocalDate) {
-            return "'" + columnValue + "'";
-        } else {
-            return columnValue + "";
-        }
+        generateUpdate("CALL TEAM_6_DB.emailLoading();");
     }
 
     /**
@@ -708,11 +1531,8 @@ public class QueryMaker {
 
     //use when needing (up to) all columns from result
     public ResultSet readRecords(String tableName, String whereClause, String value) throws SQLException {
-        value = valueQueryPrep(value);
-        String query = "SELECT * FROM " + tableName + " WHERE " + whereClause + " = " + value;
-        preparedStatement = connection.prepareStatement(query);
-        ResultSet rs = preparedStatement.executeQuery();
-        return rs;
+        return cachedQuery("SELECT * FROM " + identifier(tableName) + " WHERE " + identifier(whereClause) + " = ?",
+                QueryMaker::cache, value);
     }
 
     /**
@@ -724,8 +1544,7 @@ public class QueryMaker {
      */
 
     public ResultSet readTable(String tableName) throws SQLException {
-        ResultSet rs = statement.executeQuery("SELECT * FROM " + tableName);
-        return rs;
+        return generateQuery("SELECT * FROM " + tableName);
 
     }
 
@@ -739,8 +1558,7 @@ public class QueryMaker {
      */
 
     public ResultSet readTableWithCond(String tableName, String condition) throws SQLException {
-        ResultSet rs = statement.executeQuery("SELECT * FROM " + tableName + " " + condition);
-        return rs;
+        return generateQuery("SELECT * FROM " + tableName + " " + condition);
     }
 
     /**
@@ -755,8 +1573,7 @@ public class QueryMaker {
 
     //use when assuming needing all matches for one column
     public ResultSet readValues(String columnName, String tableName, String whereClause) throws SQLException {
-        ResultSet rs = statement.executeQuery("SELECT " + columnName + " FROM " + tableName + " WHERE " + whereClause);
-        return rs;
+        return generateQuery("SELECT " + columnName + " FROM " + tableName + " WHERE " + whereClause);
     }
 
     /**
@@ -774,52 +1591,74 @@ public class QueryMaker {
     }
 
     /**
-     * creates a new temporary table that will fill information on the top ten customers.
+     * prints the top ten customers of a day.
      * takes on the customer information: date , customer email, total purchased.
+     * results come from the report engine, so a day already reported is not queried again.
      *
      * @throws SQLException
      */
 
     public void topTenCustomers(String theDate) throws SQLException {
-        LocalDate theDate_ld = LocalDate.parse(theDate);
-
-        statement.executeUpdate("SET @theDate = '" + theDate_ld.toString() + "'");
+        topTenCustomers(theDate, theDate);
+    }
 
-        ResultSet rs = statement.executeQuery("CALL TEAM_6_DB.topTenCustomers(@theDate) ");
+    /**
+     * prints the top ten customers of every day between startDate and endDate, ranked by one query.
+     *
+     * @param startDate - first day
+     * @param endDate   - last day
+     * @throws SQLException
+     */
 
-        System.out.println("\nThe top ten customers for " + theDate + " are:");
-        System.out.printf("%-25s %-25s %-25s",
-                "Date", "Customer Email", "Total Purchased");
+    public void topTenCustomers(String startDate, String endDate) throws SQLException {
         NumberFormat formatter = NumberFormat.getCurrencyInstance();
-        while (rs.next()) {
-            System.out.printf("\n%-25s %-25s %-25s",
-                    rs.getDate(1).toString(), rs.getString(2), formatter.format(rs.getDouble(3)));
+        Map<LocalDate, List<TopNReportEngine.Entry>> days = reports.top(TopNReportEngine.CUSTOMERS,
+                LocalDate.parse(startDate), LocalDate.parse(endDate), 10);
+        for (Map.Entry<LocalDate, List<TopNReportEngine.Entry>> day : days.entrySet()) {
+            System.out.println("\nThe top ten customers for " + day.getKey() + " are:");
+            System.out.printf("%-25s %-25s %-25s",
+                    "Date", "Customer Email", "Total Purchased");
+            for (TopNReportEngine.Entry entry : day.getValue()) {
+                System.out.printf("\n%-25s %-25s %-25s",
+                        entry.getDate().toString(), entry.getName(), formatter.format(entry.getTotal()));
+            }
+            System.out.println();
         }
-        System.out.println();
     }
 
     /**
-     * creates a new temporary table that will fill information on the top ten products.
+     * prints the top ten products of a day.
      * takes on the customer information: date , product, total sold.
+     * results come from the report engine, so a day already reported is not queried again.
      *
      * @throws SQLException
      */
 
     public void topTenProducts(String theDate) throws SQLException {
-        LocalDate theDate_ld = LocalDate.parse(theDate);
-
-        statement.executeUpdate("SET @theDate = '" + theDate_ld.toString() + "'");
+        topTenProducts(theDate, theDate);
+    }
 
-        ResultSet rs = statement.executeQuery("CALL TEAM_6_DB.topTenProducts(@theDate) ");
+    /**
+     * prints the top ten products of every day between startDate and endDate, ranked by one query.
+     *
+     * @param startDate - first day
+     * @param endDate   - last day
+     * @throws SQLException
+     */
 
-        System.out.println("\nThe top ten products for " + theDate + " are:");
-        System.out.printf("%-25s %-25s %-25s",
-                "Date", "Product", "Total Sold");
-        while (rs.next()) {
-            System.out.printf("\n%-25s %-25s %-25s",
-                    rs.getDate(1).toString(), rs.getString(2), rs.getString(3));
+    public void topTenProducts(String startDate, String endDate) throws SQLException {
+        Map<LocalDate, List<TopNReportEngine.Entry>> days = reports.top(TopNReportEngine.PRODUCTS,
+                LocalDate.parse(startDate), LocalDate.parse(endDate), 10);
+        for (Map.Entry<LocalDate, List<TopNReportEngine.Entry>> day : days.entrySet()) {
+            System.out.println("\nThe top ten products for " + day.getKey() + " are:");
+            System.out.printf("%-25s %-25s %-25s",
+                    "Date", "Product", "Total Sold");
+            for (TopNReportEngine.Entry entry : day.getValue()) {
+                System.out.printf("\n%-25s %-25s %-25s",
+                        entry.getDate().toString(), entry.getName(), (long) entry.getTotal());
+            }
+            System.out.println();
         }
-        System.out.println();
     }
 
     /**
@@ -835,7 +1674,7 @@ public class QueryMaker {
      */
 
     public void updateTableFromTable(String tableName1, String tableName2, String setColumnNameT1, String setColumnNameT2, String whereColumnNameT1, String whereColumnNameT2) throws SQLException {
-        statement.executeUpdate("UPDATE " + tableName1 + ", " + tableName2 + " " +
+        generateUpdate("UPDATE " + tableName1 + ", " + tableName2 + " " +
                 "SET " + tableName1 + "." + setColumnNameT1 + " = " + tableName2 + "." + setColumnNameT2 + " " +
                 "WHERE " + tableName1 + "." + whereColumnNameT1 + " = " + tableName2 + "." + whereColumnNameT2);
     }
@@ -852,9 +1691,8 @@ public class QueryMaker {
      */
 
     public void updateTableFromStatic(String tableName1, String setColumnNameT1, String value, String whereColumnNameT1, String condition) throws SQLException {
-        statement.executeUpdate("UPDATE " + tableName1 +
-                " SET " + tableName1 + "." + setColumnNameT1 + " = " + valueQueryPrep(value) + " " +
-                " WHERE " + tableName1 + "." + whereColumnNameT1 + " = " + valueQueryPrep(condition));
+        cachedUpdate("UPDATE " + identifier(tableName1) +
+                " SET " + identifier(setColumnNameT1) + " = ? WHERE " + identifier(whereColumnNameT1) + " = ?", value, condition);
     }
 
     /**
@@ -869,12 +1707,8 @@ public class QueryMaker {
 
 
     public Boolean valueExists(String columnName, String tableName, double value) throws SQLException {
-        ResultSet rs = statement.executeQuery("SELECT COUNT( " + columnName + " ) FROM " + tableName + " WHERE " + columnName + " = " + valueQueryPrep(value));
-        int temp = 0;
-        while (rs.next()) {
-            temp++;
-        }
-        return temp > 0;
+        return cachedQuery("SELECT EXISTS (SELECT 1 FROM " + identifier(tableName) + " WHERE " + identifier(columnName) + " = ?)",
+                rs -> rs.next() && rs.getBoolean(1), value);
     }
 
     /**
@@ -888,12 +1722,8 @@ public class QueryMaker {
      */
 
     public Boolean valueExists(String columnName, String tableName, int value) throws SQLException {
-        ResultSet rs = statement.executeQuery("SELECT COUNT( " + columnName + " ) FROM " + tableName + " WHERE " + columnName + " = " + valueQueryPrep(value));
-        int temp = 0;
-        while (rs.next()) {
-            temp++;
-        }
-        return temp > 0;
+        return cachedQuery("SELECT EXISTS (SELECT 1 FROM " + identifier(tableName) + " WHERE " + identifier(columnName) + " = ?)",
+                rs -> rs.next() && rs.getBoolean(1), value);
     }
 
     /**
@@ -907,12 +1737,13 @@ public class QueryMaker {
      */
 
     public Boolean valueExists(String columnName, String tableName, String value) throws SQLException {
-        ResultSet rs = statement.executeQuery("SELECT COUNT( " + columnName + " ) FROM " + tableName + " WHERE " + columnName + " = " + valueQueryPrep(value));
-        int temp = 0;
-        while (rs.next()) {
-            temp++;
+        if ("dim_product".equalsIgnoreCase(tableName) && "product_id".equalsIgnoreCase(columnName)) {
+            BloomFilter filter = getProductFilter();
+            if (filter != null && !filter.mightContain(value))
+                return false;
         }
-        return temp > 0;
+        return cachedQuery("SELECT EXISTS (SELECT 1 FROM " + identifier(tableName) + " WHERE " + identifier(columnName) + " = ?)",
+                rs -> rs.next() && rs.getBoolean(1), value);
     }
 
     /**
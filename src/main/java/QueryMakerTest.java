@@ -2,6 +2,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
@@ -29,7 +30,7 @@ class QueryMakerTest {
 
 
     @Test
-    void createDatabaseStructure() throws FileNotFoundException, SQLException {
+    void createDatabaseStructure() throws IOException, SQLException {
         qm.createDatabaseStructure("inventory_team6.csv");
         ResultSet rs = qm.generateQuery("SELECT * FROM temp_inventory");
         assertTrue(rs.next());
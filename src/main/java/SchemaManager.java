@@ -0,0 +1,246 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SchemaManager {
+    // table, index name, columns
+    private static final String[][] INDEXES = {
+            {"processed_sales", "ps_date_result_product_index", "date, result, product_tid"},
+            {"supplier_orders", "so_date_product_index", "date, product_tid"},
+            {"inventory", "inv_product_index", "product_tid"},
+            {"dim_product", "dp_product_id_index", "product_id"},
+            {"unprocessed_sales", "us_customer_index", "customer_tid"}
+    };
+    private final Connection connection;
+
+    /**
+     * Keeps the permanent indexes (and optional date partitioning) of the database in place,
+     * so analytics procedures never have to add and drop indexes on the fact tables.
+     *
+     * @param connection - open connection to the schema being managed
+     */
+
+    public SchemaManager(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * checks every permanent index and creates the ones that are missing or have different columns.
+     * Tables that do not exist yet are skipped; createDB_Structure creates them with their indexes.
+     *
+     * @return statements that were run to fix the schema, empty if nothing was missing
+     * @throws SQLException
+     */
+
+    public List<String> verifyIndexes() throws SQLException {
+        Map<String, String> existing = new HashMap<>();
+        List<String> tables = new ArrayList<>();
+        try (Statement st = connection.createStatement()) {
+            try (ResultSet rs = st.executeQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = DATABASE()")) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1).toLowerCase());
+                }
+            }
+            try (ResultSet rs = st.executeQuery("SELECT TABLE_NAME, INDEX_NAME, " +
+                    "GROUP_CONCAT(COLUMN_NAME ORDER BY SEQ_IN_INDEX SEPARATOR ', ') " +
+                    "FROM INFORMATION_SCHEMA.STATISTICS WHERE TABLE_SCHEMA = DATABASE() " +
+                    "GROUP BY TABLE_NAME, INDEX_NAME")) {
+                while (rs.next()) {
+                    existing.put(rs.getString(1).toLowerCase() + "." + rs.getString(2).toLowerCase(), rs.getString(3).toLowerCase());
+                }
+            }
+
+            List<String> fixes = new ArrayList<>();
+            for (String[] index : INDEXES) {
+                if (!tables.contains(index[0]))
+                    continue;
+                String columns = existing.get(index[0] + "." + index[1]);
+                if (index[2].equals(columns))
+                    continue;
+                if (columns != null)
+                    fixes.add("DROP INDEX " + index[1] + " ON " + index[0]);
+                fixes.add("CREATE INDEX " + index[1] + " ON " + index[0] + " (" + index[2] + ")");
+            }
+            for (String fix : fixes) {
+                st.executeUpdate(fix);
+            }
+            return fixes;
+        }
+    }
+
+    /**
+     * one-time compaction for databases created before hash_ref was keyed by a BINARY(16) digest, including
+     * the original layout where the fact tables kept hex hashed_email and string cust_location columns.
+     * Older loads added every customer again on each batch and kept the MD5 as 32 hex characters, so
+     * hash_ref is rebuilt with one row per customer under a primary key and swapped in with RENAME TABLE.
+     * dim_customer and dim_location are created and filled from the fact tables, and processed_sales and
+     * unprocessed_sales are rebuilt on their int keys the same way. Hex hashes left in dim_customer and
+     * temp_unprocessed_sales are converted to digests in place, and plain emails in temp_unprocessed_sales are hashed.
+     * Tables already in the new layout are left alone, so running it again does nothing.
+     * The stored procedures have to be reinstalled from sql_snippets afterwards.
+     *
+     * @return statements that were run, empty if the database was already compacted
+     * @throws SQLException
+     */
+
+    public List<String> compactHashRef() throws SQLException {
+        List<String> steps = new ArrayList<>();
+        String hashRefType = columnType("hash_ref", "hashed_email");
+        if (hashRefType != null && !(hashRefType.equals("binary(16)") && hasPrimaryKey("hash_ref"))) {
+            String digest = hashRefType.equals("binary(16)") ? "hashed_email" : "UNHEX(hashed_email)";
+            steps.add("DROP TABLE IF EXISTS hash_ref_compact");
+            steps.add("CREATE TABLE hash_ref_compact (hashed_email BINARY(16) NOT NULL, unhashed_email VARCHAR(320), " +
+                    "CONSTRAINT hr_pk PRIMARY KEY (hashed_email))");
+            steps.add("INSERT IGNORE INTO hash_ref_compact (hashed_email, unhashed_email) SELECT " + digest +
+                    ", MIN(unhashed_email) FROM hash_ref WHERE hashed_email IS NOT NULL GROUP BY hashed_email");
+            steps.add("RENAME TABLE hash_ref TO hash_ref_old, hash_ref_compact TO hash_ref");
+            steps.add("DROP TABLE hash_ref_old");
+        }
+        // the original temp_unprocessed_sales holds plain emails, hashed by the loading procedures
+        if (columnType("temp_unprocessed_sales", "cust_email") != null) {
+            if (hashRefType != null)
+                steps.add("INSERT IGNORE INTO hash_ref (hashed_email, unhashed_email) SELECT DISTINCT UNHEX(MD5(cust_email)), cust_email " +
+                        "FROM temp_unprocessed_sales WHERE cust_email IS NOT NULL");
+            if (columnType("temp_unprocessed_sales", "hashed_email") == null)
+                steps.add("ALTER TABLE temp_unprocessed_sales ADD COLUMN hashed_email BINARY(16) AFTER date");
+            steps.add("UPDATE temp_unprocessed_sales SET hashed_email = UNHEX(MD5(cust_email)) WHERE cust_email IS NOT NULL");
+            steps.add("ALTER TABLE temp_unprocessed_sales DROP COLUMN cust_email");
+        }
+        for (String table : new String[]{"dim_customer", "temp_unprocessed_sales"}) {
+            String type = columnType(table, "hashed_email");
+            if (type == null || type.equals("binary(16)"))
+                continue;
+            steps.add("UPDATE " + table + " SET hashed_email = UNHEX(hashed_email) WHERE LENGTH(hashed_email) = 32");
+            steps.add("ALTER TABLE " + table + " MODIFY hashed_email BINARY(16)");
+        }
+
+        boolean processedOld = columnType("processed_sales", "cust_location") != null;
+        boolean unprocessedOld = columnType("unprocessed_sales", "cust_location") != null;
+        if (processedOld || unprocessedOld) {
+            if (!hasTable("dim_customer"))
+                steps.add("CREATE TABLE dim_customer (customer_tid INT AUTO_INCREMENT, hashed_email BINARY(16), " +
+                        "CONSTRAINT dc_pk PRIMARY KEY (customer_tid), CONSTRAINT dc_hashed_email_unique UNIQUE (hashed_email))");
+            if (!hasTable("dim_location"))
+                steps.add("CREATE TABLE dim_location (location_tid INT AUTO_INCREMENT, cust_location VARCHAR(5), " +
+                        "CONSTRAINT dl_pk PRIMARY KEY (location_tid), CONSTRAINT dl_location_unique UNIQUE (cust_location))");
+        }
+        if (processedOld)
+            rebuildFactTable(steps, "processed_sales",
+                    "date DATE, processed_dt DATETIME, location_tid INT, product_tid INT, quantity INT, result TINYINT, customer_tid INT, " +
+                            "INDEX ps_date_result_product_index (date, result, product_tid)",
+                    "date, processed_dt, location_tid, product_tid, quantity, result, customer_tid",
+                    "f.date, f.processed_dt, dl.location_tid, f.product_tid, f.quantity, f.result, dc.customer_tid");
+        if (unprocessedOld)
+            rebuildFactTable(steps, "unprocessed_sales",
+                    "us_id BIGINT AUTO_INCREMENT, date DATE, location_tid INT, product_tid INT, quantity INT, customer_tid INT, " +
+                            "CONSTRAINT us_pk PRIMARY KEY (us_id), INDEX us_customer_index (customer_tid)",
+                    "date, location_tid, product_tid, quantity, customer_tid",
+                    "f.date, dl.location_tid, f.product_tid, f.quantity, dc.customer_tid");
+        else if (hasTable("unprocessed_sales") && columnType("unprocessed_sales", "us_id") == null)
+            steps.add("ALTER TABLE unprocessed_sales ADD COLUMN us_id BIGINT AUTO_INCREMENT FIRST, ADD CONSTRAINT us_pk PRIMARY KEY (us_id)");
+
+        try (Statement st = connection.createStatement()) {
+            for (String step : steps) {
+                st.executeUpdate(step);
+            }
+        }
+        return steps;
+    }
+
+    // adds the steps that move a fact table from hex hashed_email and string cust_location to the dimension tids
+    private static void rebuildFactTable(List<String> steps, String table, String columnSpecs, String columns, String values) {
+        String digest = "IF(LENGTH(f.hashed_email) = 32, UNHEX(f.hashed_email), f.hashed_email)";
+        steps.add("INSERT IGNORE INTO dim_customer (hashed_email) SELECT DISTINCT " + digest + " FROM " + table + " f " +
+                "WHERE f.hashed_email IS NOT NULL");
+        steps.add("INSERT IGNORE INTO dim_location (cust_location) SELECT DISTINCT f.cust_location FROM " + table + " f " +
+                "WHERE f.cust_location IS NOT NULL");
+        steps.add("DROP TABLE IF EXISTS " + table + "_compact");
+        steps.add("CREATE TABLE " + table + "_compact (" + columnSpecs + ")");
+        steps.add("INSERT INTO " + table + "_compact (" + columns + ") SELECT " + values + " FROM " + table + " f " +
+                "LEFT JOIN dim_location dl ON dl.cust_location = f.cust_location " +
+                "LEFT JOIN dim_customer dc ON dc.hashed_email = " + digest);
+        steps.add("RENAME TABLE " + table + " TO " + table + "_old, " + table + "_compact TO " + table);
+        steps.add("DROP TABLE " + table + "_old");
+    }
+
+    // column type, e.g. varbinary(32), or null if the table or column does not exist
+    private String columnType(String tableName, String columnName) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT COLUMN_TYPE FROM INFORMATION_SCHEMA.COLUMNS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?")) {
+            ps.setString(1, tableName);
+            ps.setString(2, columnName);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1).toLowerCase() : null;
+            }
+        }
+    }
+
+    private boolean hasTable(String tableName) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?")) {
+            ps.setString(1, tableName);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    private boolean hasPrimaryKey(String tableName) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.STATISTICS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = 'PRIMARY'")) {
+            ps.setString(1, tableName);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    /**
+     * partitions a fact table by month on its date column (RANGE COLUMNS), so scans for one day only
+     * touch one partition as history grows. Dates after end go to a catch-all partition.
+     * Optional; the table must not have unique keys that leave out the date column.
+     *
+     * @param tableName - fact table with a date column (processed_sales, supplier_orders)
+     * @param start     - first month to get its own partition
+     * @param end       - last month to get its own partition
+     * @throws SQLException
+     */
+
+    public void partitionByDate(String tableName, LocalDate start, LocalDate end) throws SQLException {
+        StringBuilder sql = new StringBuilder("ALTER TABLE " + tableName + " PARTITION BY RANGE COLUMNS(date) (");
+        LocalDate month = start.withDayOfMonth(1);
+        while (!month.isAfter(end)) {
+            LocalDate next = month.plusMonths(1);
+            sql.append("PARTITION p").append(month.getYear()).append(String.format("%02d", month.getMonthValue()))
+                    .append(" VALUES LESS THAN ('").append(next).append("'), ");
+            month = next;
+        }
+        sql.append("PARTITION pmax VALUES LESS THAN (MAXVALUE))");
+        try (Statement st = connection.createStatement()) {
+            st.executeUpdate(sql.toString());
+        }
+    }
+
+    /**
+     * @param tableName - name of table
+     * @return boolean value if the table is partitioned
+     * @throws SQLException
+     */
+
+    public boolean isPartitioned(String tableName) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.PARTITIONS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL")) {
+            ps.setString(1, tableName);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+}
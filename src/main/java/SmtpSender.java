@@ -0,0 +1,377 @@
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.PasswordAuthentication;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SmtpSender implements AutoCloseable {
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_RETRY_BACKOFF_MILLIS = 500;
+    private static final MimeMessage STOP = null;
+    private final Session session;
+    private final String from;
+    private final TransportFactory factory;
+    private final BlockingQueue<Outgoing> queue;
+    private final List<Thread> senders = new ArrayList<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile long retryBackoffMillis = DEFAULT_RETRY_BACKOFF_MILLIS;
+    private int pending;
+    private boolean closed;
+
+    /**
+     * Sends email through a small set of SMTP connections that stay open between messages.
+     * Each sender thread owns one connected Transport and sends queued messages over it one after
+     * the other, so the TLS handshake and login happen once per connection instead of once per email.
+     * A connection that fails is closed and replaced, and the message is retried on the new one after a
+     * short, growing pause.
+     *
+     * @param credentials   - email address and password used to log in and as the sender
+     * @param host          - SMTP host
+     * @param port          - SMTP port
+     * @param ssl           - boolean value if the connection uses SSL
+     * @param connections   - number of SMTP connections (and sender threads)
+     * @param queueCapacity - messages that may wait for a connection before send() blocks
+     */
+
+    public SmtpSender(Credentials credentials, String host, int port, boolean ssl, int connections, int queueCapacity) {
+        this(session(credentials, host, port, ssl), credentials.getEmail(), null, connections, queueCapacity);
+    }
+
+    /**
+     * @param session       - mail session messages are created in
+     * @param from          - sender address
+     * @param factory       - opens a connected Transport, null to connect through the session
+     * @param connections   - number of SMTP connections (and sender threads)
+     * @param queueCapacity - messages that may wait for a connection before send() blocks
+     */
+
+    public SmtpSender(Session session, String from, TransportFactory factory, int connections, int queueCapacity) {
+        this.session = session;
+        this.from = from;
+        this.factory = factory != null ? factory : () -> {
+            Transport transport = session.getTransport();
+            transport.connect();
+            return transport;
+        };
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        for (int i = 0; i < Math.max(1, connections); i++) {
+            Thread thread = new Thread(this::sendLoop, "smtp-sender-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            senders.add(thread);
+        }
+    }
+
+    private static Session session(Credentials credentials, String host, int port, boolean ssl) {
+        Properties properties = new Properties();
+        properties.put("mail.transport.protocol", ssl ? "smtps" : "smtp");
+        properties.put("mail." + (ssl ? "smtps" : "smtp") + ".host", host);
+        properties.put("mail." + (ssl ? "smtps" : "smtp") + ".port", String.valueOf(port));
+        properties.put("mail." + (ssl ? "smtps" : "smtp") + ".auth", "true");
+
+        return Session.getInstance(properties, new javax.mail.Authenticator() {
+
+            protected PasswordAuthentication getPasswordAuthentication() {
+
+                return new PasswordAuthentication(credentials.getEmail(), credentials.getEmailPassword());
+            }
+        });
+    }
+
+    /**
+     * queues an email, blocking while the queue is full.
+     *
+     * @param emailAddress - recipient
+     * @param subject      - subject line
+     * @param emailBody    - text of the email
+     * @return boolean value if the email was queued, false if the address is invalid or the sender is closed
+     */
+
+    public boolean send(String emailAddress, String subject, String emailBody) {
+        return enqueue(emailAddress, subject, emailBody, new CompletableFuture<>());
+    }
+
+    /**
+     * queues an email, blocking while the queue is full, and reports when it has been delivered.
+     *
+     * @param emailAddress - recipient
+     * @param subject      - subject line
+     * @param emailBody    - text of the email
+     * @return completes with true once the server accepted the email, false if it could not be queued,
+     * or exceptionally with the last error if every attempt failed
+     */
+
+    public CompletableFuture<Boolean> submit(String emailAddress, String subject, String emailBody) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        if (!enqueue(emailAddress, subject, emailBody, result))
+            result.complete(false);
+        return result;
+    }
+
+    private boolean enqueue(String emailAddress, String subject, String emailBody, CompletableFuture<Boolean> result) {
+        MimeMessage message = new MimeMessage(session);
+        try {
+            message.setFrom(new InternetAddress(from));
+            message.addRecipient(Message.RecipientType.TO, new InternetAddress(emailAddress));
+            message.setSubject(subject);
+            message.setText(emailBody);
+            message.saveChanges();
+        } catch (MessagingException mex) {
+            mex.printStackTrace();
+            return false;
+        }
+        synchronized (this) {
+            if (closed)
+                return false;
+            pending++;
+        }
+        try {
+            queue.put(new Outgoing(message, result));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * waits until every queued email has been sent or has failed.
+     *
+     * @throws InterruptedException
+     */
+
+    public synchronized void flush() throws InterruptedException {
+        while (pending > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * sends the queued emails and closes the connections. Later calls to send() return false.
+     */
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        try {
+            flush();
+            for (int i = 0; i < senders.size(); i++) {
+                queue.put(new Outgoing(STOP, null));
+            }
+            for (Thread thread : senders) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendLoop() {
+        Transport transport = null;
+        boolean connectedBefore = false;
+        try {
+            Outgoing next;
+            while ((next = queue.take()).message != STOP) {
+                try {
+                    for (int attempt = 1; ; attempt++) {
+                        try {
+                            if (transport == null || !transport.isConnected()) {
+                                closeQuietly(transport);
+                                transport = null;
+                                if (connectedBefore)
+                                    reconnects.incrementAndGet();
+                                connectedBefore = true;
+                                transport = factory.create();
+                            }
+                            long start = System.nanoTime();
+                            transport.sendMessage(next.message, next.message.getAllRecipients());
+                            long nanos = System.nanoTime() - start;
+                            sendNanos.addAndGet(nanos);
+                            maxSendNanos.accumulateAndGet(nanos, Math::max);
+                            sent.incrementAndGet();
+                            next.result.complete(true);
+                            break;
+                        } catch (MessagingException | RuntimeException mex) {
+                            if (mex instanceof SendFailedException && permanentlyRejected((SendFailedException) mex)) {
+                                // recipients refused with a 5xx reply: retrying cannot help and the connection is fine
+                                failed.incrementAndGet();
+                                System.out.println("Email rejected by the mail server: " + mex.getMessage());
+                                next.result.completeExceptionally(mex);
+                                break;
+                            }
+                            if (connectionLost(transport, mex)) {
+                                closeQuietly(transport);
+                                transport = null;
+                            }
+                            if (attempt >= maxAttempts) {
+                                failed.incrementAndGet();
+                                mex.printStackTrace();
+                                next.result.completeExceptionally(mex);
+                                break;
+                            }
+                            try {
+                                Thread.sleep(retryBackoffMillis << (attempt - 1));
+                            } catch (InterruptedException e) {
+                                failed.incrementAndGet();
+                                next.result.completeExceptionally(mex);
+                                throw e;
+                            }
+                        }
+                    }
+                } finally {
+                    done();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly(transport);
+        }
+    }
+
+    // a failed send only costs a reconnect when the connection itself is broken
+    private static boolean connectionLost(Transport transport, Exception e) {
+        if (transport == null || !transport.isConnected())
+            return true;
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException)
+                return true;
+        }
+        return false;
+    }
+
+    // a 4xx reply (421 closing, 450 mailbox busy, 452 out of storage) asks the client to try again later;
+    // the reply code leads the message of the exception or of one of the address failures chained to it
+    private static boolean permanentlyRejected(SendFailedException sfe) {
+        boolean permanent = false;
+        for (Exception e = sfe; e != null; e = e instanceof MessagingException ? ((MessagingException) e).getNextException() : null) {
+            String message = e.getMessage();
+            if (message == null || message.length() < 3 || !message.substring(0, 3).matches("[2-5][0-9][0-9]"))
+                continue;
+            if (message.charAt(0) == '4')
+                return false;
+            if (message.charAt(0) == '5')
+                permanent = true;
+        }
+        return permanent;
+    }
+
+    private synchronized void done() {
+        pending--;
+        notifyAll();
+    }
+
+    private static void closeQuietly(Transport transport) {
+        if (transport == null)
+            return;
+        try {
+            transport.close();
+        } catch (MessagingException ignore) {
+        }
+    }
+
+    /**
+     * @param maxAttempts - times a message is tried before it counts as failed; a broken connection is
+     *                    replaced before the next try, a recipient refused with a 5xx reply is not retried
+     */
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * @param retryBackoffMillis - pause before the second try of a message, doubled before every further try
+     */
+
+    public void setRetryBackoff(long retryBackoffMillis) {
+        this.retryBackoffMillis = Math.max(0, retryBackoffMillis);
+    }
+
+    /**
+     * @return number of emails waiting for a connection
+     */
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of emails sent
+     */
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return number of emails given up on after maxAttempts
+     */
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return number of times a connection was opened again after the first one
+     */
+
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    /**
+     * @return average time in ms the server took to accept an email
+     */
+
+    public double getAverageSendMillis() {
+        long count = sent.get();
+        return count == 0 ? 0 : sendNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * @return longest time in ms the server took to accept an email
+     */
+
+    public double getMaxSendMillis() {
+        return maxSendNanos.get() / 1e6;
+    }
+
+    /**
+     * opens a connected Transport.
+     */
+
+    public interface TransportFactory {
+        Transport create() throws MessagingException;
+    }
+
+    private static class Outgoing {
+        private final MimeMessage message;
+        private final CompletableFuture<Boolean> result;
+
+        Outgoing(MimeMessage message, CompletableFuture<Boolean> result) {
+            this.message = message;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import org.junit.jupiter.api.Test;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmtpSenderTest {
+
+    private final Session session = Session.getInstance(new Properties());
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger delivered = new AtomicInteger();
+    private final AtomicInteger busyReplies = new AtomicInteger();
+
+    /**
+     * Transport that fails its failAfter-th send and reports itself disconnected afterwards.
+     */
+    private class FakeTransport extends Transport {
+        private final int failAfter;
+        private int sends;
+        private boolean connected = true;
+
+        FakeTransport(int failAfter) {
+            super(session, null);
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void sendMessage(Message message, Address[] addresses) throws MessagingException {
+            String to = addresses[0].toString();
+            if (to.startsWith("bad")) {
+                SendFailedException invalid = new SendFailedException("Invalid Addresses");
+                invalid.setNextException(new SendFailedException("550 5.1.1 mailbox unavailable"));
+                throw invalid;
+            }
+            if (to.startsWith("busy") && busyReplies.getAndDecrement() > 0)
+                throw new SendFailedException("452 4.2.2 mailbox full, try again later");
+            if (++sends == failAfter) {
+                connected = false;
+                throw new MessagingException("connection reset");
+            }
+            delivered.incrementAndGet();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void close() {
+            connected = false;
+        }
+    }
+
+    /**
+     * send ten emails over one connection
+     * check the connection is opened once and reused for every email
+     */
+    @Test
+    void reusesConnection() throws InterruptedException {
+        try (SmtpSender sender = new SmtpSender(session, "shop@x.com", () -> {
+            opened.incrementAndGet();
+            return new FakeTransport(0);
+        }, 1, 4)) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(sender.send("c" + i + "@x.com", "Your Order", "Order received"));
+            }
+            sender.flush();
+            assertEquals(10, sender.getSentCount());
+            assertEquals(0, sender.getQueueDepth());
+        }
+        assertEquals(1, opened.get());
+        assertEquals(10, delivered.get());
+    }
+
+    /**
+     * fail the third send on each connection
+     * check the sender reconnects, retries the email and loses nothing
+     */
+    @Test
+    void reconnectsAfterFailure() throws InterruptedException {
+        try (SmtpSender sender = new SmtpSender(session, "shop@x.com", () -> {
+            opened.incrementAndGet();
+            return new FakeTransport(3);
+        }, 1, 4)) {
+            sender.setRetryBackoff(1);
+            for (int i = 0; i < 5; i++) {
+                sender.send("c" + i + "@x.com", "Your Order", "Order received");
+            }
+            sender.flush();
+            assertEquals(5, sender.getSentCount());
+            assertEquals(0, sender.getFailedCount());
+            assertEquals(2, sender.getReconnectCount());
+        }
+        assertEquals(5, delivered.get());
+        assertEquals(3, opened.get());
+    }
+
+    /**
+     * send to a rejected recipient between two good ones
+     * check it fails at once without retries and the connection is kept for the next email
+     */
+    @Test
+    void keepsConnectionOnRejectedRecipient() throws Exception {
+        try (SmtpSender sender = new SmtpSender(session, "shop@x.com", () -> {
+            opened.incrementAndGet();
+            return new FakeTransport(0);
+        }, 1, 4)) {
+            sender.send("c1@x.com", "Your Order", "Order received");
+            assertThrows(Exception.class, () -> sender.submit("bad@x.com", "Your Order", "Order received").get());
+            sender.send("c2@x.com", "Your Order", "Order received");
+            sender.flush();
+            assertEquals(2, sender.getSentCount());
+            assertEquals(1, sender.getFailedCount());
+            assertEquals(0, sender.getReconnectCount());
+        }
+        assertEquals(1, opened.get());
+    }
+
+    /**
+     * answer the first two tries of an email with a 452 reply, backing off 50 ms
+     * check the email is retried on the same connection after 50 + 100 ms and delivered
+     */
+    @Test
+    void retriesTransientRejection() throws Exception {
+        busyReplies.set(2);
+        try (SmtpSender sender = new SmtpSender(session, "shop@x.com", () -> {
+            opened.incrementAndGet();
+            return new FakeTransport(0);
+        }, 1, 4)) {
+            sender.setRetryBackoff(50);
+            long start = System.nanoTime();
+            assertTrue(sender.submit("busy@x.com", "Your Order", "Order received").get());
+            assertTrue(System.nanoTime() - start >= 150000000L);
+            assertEquals(1, sender.getSentCount());
+            assertEquals(0, sender.getFailedCount());
+            assertEquals(0, sender.getReconnectCount());
+        }
+        assertEquals(1, opened.get());
+        assertEquals(1, delivered.get());
+    }
+
+    /**
+     * keep answering an email with a 452 reply
+     * check it fails after maxAttempts tries
+     */
+    @Test
+    void failsTransientRejectionAfterMaxAttempts() throws Exception {
+        busyReplies.set(Integer.MAX_VALUE);
+        try (SmtpSender sender = new SmtpSender(session, "shop@x.com", () -> new FakeTransport(0), 1, 4)) {
+            sender.setRetryBackoff(1);
+            sender.setMaxAttempts(3);
+            assertThrows(Exception.class, () -> sender.submit("busy@x.com", "Your Order", "Order received").get());
+            assertEquals(1, sender.getFailedCount());
+        }
+        assertEquals(Integer.MAX_VALUE - 3, busyReplies.get());
+    }
+}
@@ -0,0 +1,100 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class StatementCache implements AutoCloseable {
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+
+    /**
+     * Keeps the most recently used PreparedStatements of one physical connection open, keyed by SQL,
+     * so a repeated query is parsed and planned once and then only executed.
+     * Not thread safe; a connection is only used by one thread at a time.
+     *
+     * @param connection - physical connection the statements belong to
+     * @param maxSize    - statements kept open, the least recently used one is closed beyond that
+     */
+
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize)
+                    return false;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * returns the open statement for the SQL, preparing it on first use.
+     * parameters of an earlier execution are cleared. The statement belongs to the cache and must not be closed.
+     *
+     * @param sql - statement with ? placeholders
+     * @return prepared statement ready for binding
+     * @throws SQLException
+     */
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            hits++;
+            ps.clearParameters();
+            return ps;
+        }
+        misses++;
+        ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statements.put(sql, ps);
+        return ps;
+    }
+
+    /**
+     * @return number of statements currently open
+     */
+
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * @return number of prepare() calls answered from the cache
+     */
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of prepare() calls that had to prepare a new statement
+     */
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * closes every cached statement.
+     */
+
+    @Override
+    public void close() {
+        for (PreparedStatement ps : statements.values()) {
+            closeQuietly(ps);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignore) {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatementCacheTest {
+
+    private final List<String> prepared = new ArrayList<>();
+    private final List<String> closed = new ArrayList<>();
+
+    private Connection newConnection() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("prepareStatement"))
+                        return null;
+                    String sql = (String) args[0];
+                    prepared.add(sql);
+                    boolean[] isClosed = new boolean[1];
+                    return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                            (ps, m, a) -> {
+                                switch (m.getName()) {
+                                    case "close":
+                                        isClosed[0] = true;
+                                        closed.add(sql);
+                                        return null;
+                                    case "isClosed":
+                                        return isClosed[0];
+                                    default:
+                                        return null;
+                                }
+                            });
+                });
+    }
+
+    /**
+     * prepare the same SQL twice
+     * check the statement is prepared once and reused
+     */
+    @Test
+    void reusesStatement() throws SQLException {
+        StatementCache cache = new StatementCache(newConnection(), 4);
+        PreparedStatement first = cache.prepare("SELECT 1 FROM dim_product WHERE product_id = ?");
+        PreparedStatement second = cache.prepare("SELECT 1 FROM dim_product WHERE product_id = ?");
+        assertTrue(first == second);
+        assertEquals(1, prepared.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    /**
+     * prepare more statements than the cache holds
+     * check the least recently used one is closed and the rest stay open
+     */
+    @Test
+    void evictsLeastRecentlyUsed() throws SQLException {
+        StatementCache cache = new StatementCache(newConnection(), 2);
+        cache.prepare("a");
+        cache.prepare("b");
+        cache.prepare("a");
+        cache.prepare("c");
+        assertEquals(2, cache.size());
+        assertEquals(1, closed.size());
+        assertEquals("b", closed.get(0));
+        cache.close();
+        assertEquals(3, closed.size());
+    }
+}
@@ -14,13 +14,11 @@ import java.sql.*;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 
 public class TimeSeries_AWT extends ApplicationFrame {
 
     //private static Connection connection;
-    private static Statement statement;
     private final int assets = 1;
     private final int dailyOrders = 2;
     private final int dailyPurchase = 3;
@@ -33,7 +31,6 @@ public class TimeSeries_AWT extends ApplicationFrame {
     public TimeSeries_AWT(String title, Credentials credentials, int op, String start, String end) throws IOException, SQLException, ClassNotFoundException {
         super(title);
         qm = credentials.getQueryMaker();
-        statement = QueryMaker.statement;
         XYDataset dataset = createDataset(op, start, end);
         JFreeChart chart = createChart(dataset, op);
         ChartPanel chartPanel = new ChartPanel(chart);
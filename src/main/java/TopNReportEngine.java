@@ -0,0 +1,231 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TopNReportEngine {
+    public static final int CUSTOMERS = 0;
+    public static final int PRODUCTS = 1;
+    // ranks every (date, customer) of the range by spend in one pass; only the ranked rows get their email joined
+    private static final String CUSTOMERS_SQL = "SELECT r.date, r.rank_no, hr.unhashed_email, r.total FROM (" +
+            "SELECT ps.date, ps.customer_tid, SUM(ps.quantity * inv.sale_price) AS total, " +
+            "ROW_NUMBER() OVER (PARTITION BY ps.date ORDER BY SUM(ps.quantity * inv.sale_price) DESC, ps.customer_tid) AS rank_no " +
+            "FROM processed_sales ps INNER JOIN inventory inv ON ps.product_tid = inv.product_tid " +
+            "WHERE ps.date BETWEEN ? AND ? AND ps.result = 1 GROUP BY ps.date, ps.customer_tid) r " +
+            "INNER JOIN dim_customer dc ON r.customer_tid = dc.customer_tid " +
+            "INNER JOIN hash_ref hr ON dc.hashed_email = hr.hashed_email " +
+            "WHERE r.rank_no <= ? ORDER BY r.date, r.rank_no";
+    private static final String PRODUCTS_SQL = "SELECT r.date, r.rank_no, dp.product_id, r.total FROM (" +
+            "SELECT ps.date, ps.product_tid, SUM(ps.quantity) AS total, " +
+            "ROW_NUMBER() OVER (PARTITION BY ps.date ORDER BY SUM(ps.quantity) DESC, ps.product_tid) AS rank_no " +
+            "FROM processed_sales ps WHERE ps.date BETWEEN ? AND ? AND ps.result = 1 GROUP BY ps.date, ps.product_tid) r " +
+            "INNER JOIN dim_product dp ON r.product_tid = dp.product_tid " +
+            "WHERE r.rank_no <= ? ORDER BY r.date, r.rank_no";
+    private final Loader loader;
+    private final Map<Key, List<Entry>> cache = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+
+    /**
+     * Top-N reports (customers by spend, products by quantity sold) over processed_sales.
+     * A whole date range is ranked by one windowed query, ROW_NUMBER() OVER (PARTITION BY date ...),
+     * instead of one procedure call per day. Results are cached per (report, date, N) and dropped with
+     * invalidate() when new sales are committed for a date, so repeated reports do not aggregate the same rows again.
+     *
+     * @param qm - query maker of the database holding processed_sales
+     */
+
+    public TopNReportEngine(QueryMaker qm) {
+        this((report, start, end, n) -> qm.queryList(report == CUSTOMERS ? CUSTOMERS_SQL : PRODUCTS_SQL,
+                rs -> new Entry(rs.getDate(1).toLocalDate(), rs.getInt(2), rs.getString(3), rs.getDouble(4)),
+                start, end, n));
+    }
+
+    /**
+     * Same as above, with the ranked rows supplied by the caller.
+     *
+     * @param loader - returns the top n rows of every date between start and end, ordered by date and rank
+     */
+
+    public TopNReportEngine(Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @param report - CUSTOMERS or PRODUCTS
+     * @param date   - day of the report
+     * @param n      - number of ranks
+     * @return top n of the day, best first; empty if nothing was sold
+     * @throws SQLException
+     */
+
+    public List<Entry> top(int report, LocalDate date, int n) throws SQLException {
+        return top(report, date, date, n).get(date);
+    }
+
+    /**
+     * returns the top n of every day between start and end (inclusive). Days already cached are served from
+     * memory; the others are ranked together by a single query over the span of the missing days.
+     *
+     * @param report - CUSTOMERS or PRODUCTS
+     * @param start  - first day
+     * @param end    - last day
+     * @param n      - number of ranks
+     * @return top n per day in date order, every day of the range present
+     * @throws SQLException
+     */
+
+    public Map<LocalDate, List<Entry>> top(int report, LocalDate start, LocalDate end, int n) throws SQLException {
+        if (report != CUSTOMERS && report != PRODUCTS)
+            throw new IllegalArgumentException("Unknown report " + report);
+        Map<LocalDate, List<Entry>> result = new LinkedHashMap<>();
+        LocalDate firstMissing = null;
+        LocalDate lastMissing = null;
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            List<Entry> cached = cache.get(new Key(report, day, n));
+            result.put(day, cached);
+            if (cached == null) {
+                if (firstMissing == null)
+                    firstMissing = day;
+                lastMissing = day;
+            }
+        }
+        if (firstMissing == null)
+            return result;
+
+        long seen = version.get();
+        queries.incrementAndGet();
+        Map<LocalDate, List<Entry>> loaded = new LinkedHashMap<>();
+        for (LocalDate day = firstMissing; !day.isAfter(lastMissing); day = day.plusDays(1)) {
+            loaded.put(day, new ArrayList<>(n));
+        }
+        for (Entry entry : loader.load(report, firstMissing, lastMissing, n)) {
+            List<Entry> day = loaded.get(entry.getDate());
+            if (day != null)
+                day.add(entry);
+        }
+        for (Map.Entry<LocalDate, List<Entry>> day : loaded.entrySet()) {
+            if (result.get(day.getKey()) == null)
+                result.put(day.getKey(), day.getValue());
+            // sales committed while the query ran may be missing from it, so only cache results that are still current
+            if (version.get() == seen)
+                cache.putIfAbsent(new Key(report, day.getKey(), n), day.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * drops the cached reports of every day between start and end (inclusive).
+     * Call after committing processed_sales rows for those days.
+     *
+     * @param start - first day
+     * @param end   - last day
+     */
+
+    public void invalidate(LocalDate start, LocalDate end) {
+        version.incrementAndGet();
+        cache.keySet().removeIf(key -> !key.date.isBefore(start) && !key.date.isAfter(end));
+    }
+
+    /**
+     * drops every cached report, e.g. after the database was recreated.
+     */
+
+    public void invalidateAll() {
+        version.incrementAndGet();
+        cache.clear();
+    }
+
+    /**
+     * @return number of (report, date, N) results held in the cache
+     */
+
+    public int getCachedCount() {
+        return cache.size();
+    }
+
+    /**
+     * @return number of queries sent to the database
+     */
+
+    public long getQueryCount() {
+        return queries.get();
+    }
+
+    /**
+     * supplies the ranked rows of a date range.
+     */
+
+    public interface Loader {
+        List<Entry> load(int report, LocalDate start, LocalDate end, int n) throws SQLException;
+    }
+
+    /**
+     * one ranked row of a report: customer email with total spend, or product id with total quantity sold.
+     */
+
+    public static class Entry {
+        private final LocalDate date;
+        private final int rank;
+        private final String name;
+        private final double total;
+
+        public Entry(LocalDate date, int rank, String name, double total) {
+            this.date = date;
+            this.rank = rank;
+            this.name = name;
+            this.total = total;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getTotal() {
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return date + " #" + rank + " " + name + " " + total;
+        }
+    }
+
+    private static final class Key {
+        private final int report;
+        private final LocalDate date;
+        private final int n;
+
+        private Key(int report, LocalDate date, int n) {
+            this.report = report;
+            this.date = date;
+            this.n = n;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return report == key.report && n == key.n && date.equals(key.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(report, date, n);
+        }
+    }
+}
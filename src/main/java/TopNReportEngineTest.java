@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopNReportEngineTest {
+    private static final LocalDate DAY = LocalDate.parse("2020-03-01");
+
+    // ranks n fake entries for every day of the range, skipping days with an even day of month
+    private static List<TopNReportEngine.Entry> ranked(LocalDate start, LocalDate end, int n) {
+        List<TopNReportEngine.Entry> rows = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            if (day.getDayOfMonth() % 2 == 0)
+                continue;
+            for (int rank = 1; rank <= n; rank++) {
+                rows.add(new TopNReportEngine.Entry(day, rank, "c" + rank, 100 - rank));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * ask for a week of reports, then for single days inside it
+     * check the week is loaded by one query, every day is present and the days are served from the cache
+     */
+    @Test
+    void loadsRangeOnceAndCaches() throws Exception {
+        List<LocalDate[]> calls = new ArrayList<>();
+        TopNReportEngine engine = new TopNReportEngine((report, start, end, n) -> {
+            calls.add(new LocalDate[]{start, end});
+            return ranked(start, end, n);
+        });
+
+        Map<LocalDate, List<TopNReportEngine.Entry>> week = engine.top(TopNReportEngine.CUSTOMERS, DAY, DAY.plusDays(6), 10);
+        assertEquals(7, week.size());
+        assertEquals(10, week.get(DAY).size());
+        assertEquals(1, week.get(DAY).get(0).getRank());
+        assertTrue(week.get(DAY.plusDays(1)).isEmpty());
+        assertEquals(1, calls.size());
+
+        assertEquals(10, engine.top(TopNReportEngine.CUSTOMERS, DAY.plusDays(2), 10).size());
+        assertEquals(1, engine.getQueryCount());
+        assertEquals(3, engine.top(TopNReportEngine.CUSTOMERS, DAY, 3).size());
+        assertEquals(2, engine.getQueryCount());
+    }
+
+    /**
+     * cache a week, invalidate two days of it and ask for the week again
+     * check only the span of the invalidated days is queried again
+     */
+    @Test
+    void invalidatesCommittedDays() throws Exception {
+        List<LocalDate[]> calls = new ArrayList<>();
+        TopNReportEngine engine = new TopNReportEngine((report, start, end, n) -> {
+            calls.add(new LocalDate[]{start, end});
+            return ranked(start, end, n);
+        });
+        engine.top(TopNReportEngine.PRODUCTS, DAY, DAY.plusDays(6), 10);
+        engine.top(TopNReportEngine.CUSTOMERS, DAY, DAY.plusDays(6), 10);
+        assertEquals(14, engine.getCachedCount());
+
+        engine.invalidate(DAY.plusDays(3), DAY.plusDays(4));
+        assertEquals(10, engine.getCachedCount());
+        engine.top(TopNReportEngine.PRODUCTS, DAY, DAY.plusDays(6), 10);
+        assertEquals(3, calls.size());
+        assertEquals(DAY.plusDays(3), calls.get(2)[0]);
+        assertEquals(DAY.plusDays(4), calls.get(2)[1]);
+
+        engine.invalidateAll();
+        assertEquals(0, engine.getCachedCount());
+    }
+}
@@ -2,6 +2,7 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 public class Transaction {
+    private static final DateTimeFormatter PROCESSED_DT_FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss");
 
     private java.sql.Date date_id;
     private String cust_location;
@@ -152,10 +153,7 @@ public class Transaction {
      */
 
     public String[] processTransaction(int x) {
-        LocalDateTime dt = LocalDateTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss");
-        String dt_staging = dt.format(formatter);
-        String dt_result = dt_staging;
+        String dt_result = LocalDateTime.now().format(PROCESSED_DT_FORMAT);
 
         return new String[]{String.valueOf(getDate()), dt_result, getCustLocation(), String.valueOf(getProduct_TID()),
                 String.valueOf(getQuantity()), Integer.toString(x), getCustEmail()};
@@ -0,0 +1,188 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+public class TransactionBatch {
+    private int size;
+    private int[] dates;
+    private int[] locationTids;
+    private int[] productTids;
+    private int[] quantities;
+    private int[] customerTids;
+    private long[] results;
+
+    /**
+     * Column oriented batch of orders. Each order is a row index into parallel primitive arrays, which keeps
+     * large batches cheap to hold and lets the fulfilment engine split them by product.
+     * Customers and locations are the int keys of dim_customer and dim_location, so an order takes
+     * five ints and one bit of the result bitmap, read and written without any String or byte[] per row.
+     *
+     * @param capacity - initial number of rows, the batch grows past it if needed
+     */
+
+    public TransactionBatch(int capacity) {
+        capacity = Math.max(64, capacity);
+        dates = new int[capacity];
+        locationTids = new int[capacity];
+        productTids = new int[capacity];
+        quantities = new int[capacity];
+        customerTids = new int[capacity];
+        results = new long[(capacity + 63) >>> 6];
+    }
+
+    /**
+     * appends one order.
+     *
+     * @param epochDay     - order date as LocalDate.toEpochDay()
+     * @param location_tid - id representing customer location in SQL database
+     * @param product_tid  - id representing product in SQL database
+     * @param quantity     - ordered quantity
+     * @param customer_tid - id representing customer in SQL database
+     */
+
+    public void add(int epochDay, int location_tid, int product_tid, int quantity, int customer_tid) {
+        if (size == dates.length)
+            grow();
+        dates[size] = epochDay;
+        locationTids[size] = location_tid;
+        productTids[size] = product_tid;
+        quantities[size] = quantity;
+        customerTids[size] = customer_tid;
+        results[size >>> 6] &= ~(1L << size);
+        size++;
+    }
+
+    /**
+     * empties the batch, keeping the allocated arrays for the next chunk.
+     */
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return number of orders in the batch
+     */
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the batch has no room left without growing
+     */
+
+    public boolean isFull() {
+        return size == dates.length;
+    }
+
+    /**
+     * @param row - row index
+     * @return order date as LocalDate.toEpochDay()
+     */
+
+    public int getDate(int row) {
+        return dates[row];
+    }
+
+    /**
+     * @param row - row index
+     * @return id representing customer location in SQL database
+     */
+
+    public int getLocationTid(int row) {
+        return locationTids[row];
+    }
+
+    /**
+     * @param row - row index
+     * @return id representing product in SQL database
+     */
+
+    public int getProductTid(int row) {
+        return productTids[row];
+    }
+
+    /**
+     * @param row - row index
+     * @return ordered quantity
+     */
+
+    public int getQuantity(int row) {
+        return quantities[row];
+    }
+
+    /**
+     * @param row - row index
+     * @return id representing customer in SQL database
+     */
+
+    public int getCustomerTid(int row) {
+        return customerTids[row];
+    }
+
+    /**
+     * @param row - row index
+     * @return 1 if the order was processed, 0 if it was not (see FulfilmentEngine)
+     */
+
+    public int getResult(int row) {
+        return (int) (results[row >>> 6] >>> row) & 1;
+    }
+
+    /**
+     * sets one bit of the result bitmap. Neighbouring rows share a word, so only one thread may set results at a time.
+     *
+     * @param row    - row index
+     * @param result - 1 if the order was processed, 0 if it was not
+     */
+
+    public void setResult(int row, int result) {
+        if (result != 0)
+            results[row >>> 6] |= 1L << row;
+        else
+            results[row >>> 6] &= ~(1L << row);
+    }
+
+    /**
+     * binds every order of the batch straight from the arrays onto a processed_sales insert with the columns
+     * date, processed_dt, location_tid, product_tid, quantity, result, customer_tid.
+     * No per-row Object[] or String conversions; one java.sql.Date is made per distinct day.
+     *
+     * @param inserter    - bulk inserter for processed_sales with the columns above
+     * @param processedDt - processed_dt of the run
+     * @throws SQLException
+     */
+
+    public void writeProcessedSales(BulkInserter inserter, Timestamp processedDt) throws SQLException {
+        PreparedStatement ps = inserter.getStatement();
+        int day = Integer.MIN_VALUE;
+        java.sql.Date date = null;
+        for (int i = 0; i < size; i++) {
+            if (dates[i] != day) {
+                day = dates[i];
+                date = java.sql.Date.valueOf(LocalDate.ofEpochDay(day));
+            }
+            ps.setDate(1, date);
+            ps.setTimestamp(2, processedDt);
+            ps.setInt(3, locationTids[i]);
+            ps.setInt(4, productTids[i]);
+            ps.setInt(5, quantities[i]);
+            ps.setInt(6, getResult(i));
+            ps.setInt(7, customerTids[i]);
+            inserter.addBoundRow();
+        }
+    }
+
+    private void grow() {
+        int capacity = dates.length << 1;
+        dates = Arrays.copyOf(dates, capacity);
+        locationTids = Arrays.copyOf(locationTids, capacity);
+        productTids = Arrays.copyOf(productTids, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        customerTids = Arrays.copyOf(customerTids, capacity);
+        results = Arrays.copyOf(results, (capacity + 63) >>> 6);
+    }
+}
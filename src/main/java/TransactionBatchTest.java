@@ -0,0 +1,46 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionBatchTest {
+
+    /**
+     * add orders for two customers and two locations
+     * check every column reads back unchanged
+     */
+    @Test
+    void keepsIntKeys() {
+        TransactionBatch batch = new TransactionBatch(16);
+        batch.add(18262, 3, 1, 2, 70001);
+        batch.add(18263, 4, 9, 5, 12);
+
+        assertEquals(18262, batch.getDate(0));
+        assertEquals(3, batch.getLocationTid(0));
+        assertEquals(70001, batch.getCustomerTid(0));
+        assertEquals(4, batch.getLocationTid(1));
+        assertEquals(9, batch.getProductTid(1));
+        assertEquals(5, batch.getQuantity(1));
+        assertEquals(12, batch.getCustomerTid(1));
+    }
+
+    /**
+     * set results on a batch that grows past several bitmap words
+     * check each row keeps its own result and clear() resets them for the next chunk
+     */
+    @Test
+    void keepsResultBitmap() {
+        TransactionBatch batch = new TransactionBatch(16);
+        for (int i = 0; i < 300; i++) {
+            batch.add(18262, 1, i, 1, i);
+            batch.setResult(i, i % 3 == 0 ? 1 : 0);
+        }
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i % 3 == 0 ? 1 : 0, batch.getResult(i));
+            assertEquals(i, batch.getProductTid(i));
+            assertEquals(i, batch.getCustomerTid(i));
+        }
+        batch.clear();
+        batch.add(18263, 2, 5, 1, 1);
+        assertEquals(0, batch.getResult(0));
+    }
+}